@@ -0,0 +1,207 @@
+package ca.concordia.client;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Non-blocking client for the file server.
+ * Every call returns a CompletableFuture right away; requests are pipelined over a
+ * pool of connections, so one application can keep thousands of operations in flight.
+ * Requests the server sheds with BUSY are retried after the delay it asks for,
+ * and reads are also retried when a connection drops. Every attempt has a timeout.
+ */
+public class AsyncFileClient implements AutoCloseable {
+
+    private static final long DEFAULT_RETRY_DELAY_MS = 100;
+    // Same rule the server applies to file names
+    private static final Pattern VALID_NAME = Pattern.compile("^[a-zA-Z0-9._-]{1,11}$");
+
+    private final ConnectionPool pool;
+    private final Duration timeout;
+    private final int maxRetries;
+    private final ScheduledExecutorService retryScheduler;
+    // Requests waiting for a scheduled retry; close() fails them, since shutdownNow() drops their retries
+    private final Set<CompletableFuture<String>> awaitingRetry = ConcurrentHashMap.newKeySet();
+
+    public AsyncFileClient(String host, int port) {
+        this(host, port, 4, Duration.ofSeconds(5), 3);
+    }
+
+    public AsyncFileClient(String host, int port, int poolSize, Duration timeout, int maxRetries) {
+        this.pool = new ConnectionPool(host, port, poolSize, (int) timeout.toMillis());
+        this.timeout = timeout;
+        this.maxRetries = maxRetries;
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "file-client-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<Void> create(String fileName) {
+        if (!isValidName(fileName)) {
+            return invalidName(fileName);
+        }
+        return request("CREATE " + fileName, false).thenApply(reply -> null);
+    }
+
+    public CompletableFuture<Void> write(String fileName, String content) {
+        if (!isValidName(fileName)) {
+            return invalidName(fileName);
+        }
+        if (content.indexOf('\n') >= 0 || content.indexOf('\r') >= 0) {
+            return CompletableFuture.failedFuture(
+                    new FileClientException("Content cannot contain line breaks."));
+        }
+        return request("WRITE " + fileName + " " + content, false).thenApply(reply -> null);
+    }
+
+    public CompletableFuture<String> read(String fileName) {
+        if (!isValidName(fileName)) {
+            return invalidName(fileName);
+        }
+        return request("READ " + fileName, true).thenApply(AsyncFileClient::payload);
+    }
+
+    //Reads the file into the caller's buffer, starting at its position, and completes with the byte count.
+    //The buffer's position is advanced past the content; fails if the content does not fit.
+    public CompletableFuture<Integer> readInto(String fileName, ByteBuffer buffer) {
+        return read(fileName).thenApply(content -> {
+            byte[] bytes = content.getBytes();
+            if (bytes.length > buffer.remaining()) {
+                throw new FileClientException("Buffer has " + buffer.remaining() + " bytes left, file '"
+                        + fileName + "' has " + bytes.length + ".");
+            }
+            buffer.put(bytes);
+            return bytes.length;
+        });
+    }
+
+    public CompletableFuture<Void> delete(String fileName) {
+        if (!isValidName(fileName)) {
+            return invalidName(fileName);
+        }
+        return request("DELETE " + fileName, false).thenApply(reply -> null);
+    }
+
+    public CompletableFuture<List<String>> list() {
+        return request("LIST", true).thenApply(reply -> {
+            String files = payload(reply);
+            if (files.equals("No files.")) {
+                return new ArrayList<>();
+            }
+            return new ArrayList<>(Arrays.asList(files.split(", ")));
+        });
+    }
+
+    //Checked before sending: a name with a space or line break would be read by the server as a different
+    //command, or as two, and every later reply on the connection would be matched to the wrong request.
+    //A name like "ttl=3" would be taken as the TTL argument.
+    private static boolean isValidName(String fileName) {
+        return fileName != null && VALID_NAME.matcher(fileName).matches();
+    }
+
+    private static <T> CompletableFuture<T> invalidName(String fileName) {
+        return CompletableFuture.failedFuture(new FileClientException("Invalid file name '" + fileName
+                + "': use 1 to 11 letters, digits, dots, underscores or hyphens."));
+    }
+
+    //Strips the "SUCCESS: " prefix of a reply
+    private static String payload(String reply) {
+        return reply.startsWith("SUCCESS: ") ? reply.substring("SUCCESS: ".length()) : "";
+    }
+
+    //Sends a request, turning anything but SUCCESS into a FileClientException.
+    //idempotent requests may be resent when their connection drops, since re-running them is harmless.
+    private CompletableFuture<String> request(String line, boolean idempotent) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        attempt(line, idempotent, 0, result);
+        return result;
+    }
+
+    private void attempt(String line, boolean idempotent, int attemptNumber, CompletableFuture<String> result) {
+        pool.acquire().whenComplete((connection, error) -> {
+            if (error != null) {
+                // Nothing was sent, so any request may be tried again
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                retryOrFail(line, idempotent, attemptNumber, result, DEFAULT_RETRY_DELAY_MS,
+                        new FileClientException("Could not connect: " + cause.getMessage(), false, cause));
+            } else {
+                send(connection, line, idempotent, attemptNumber, result);
+            }
+        });
+    }
+
+    private void send(PipelinedConnection connection, String line, boolean idempotent, int attemptNumber,
+            CompletableFuture<String> result) {
+        connection.send(line).orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS).whenComplete((response, error) -> {
+            if (error != null) {
+                // The server may or may not have run it; only requests that are safe to repeat are resent
+                FileClientException failure = new FileClientException("Request failed: " + error, false, error);
+                if (idempotent) {
+                    retryOrFail(line, true, attemptNumber, result, DEFAULT_RETRY_DELAY_MS, failure);
+                } else {
+                    result.completeExceptionally(failure);
+                }
+            } else if (response.startsWith("BUSY")) {
+                // Shed before it ran, so it is always safe to resend
+                retryOrFail(line, idempotent, attemptNumber, result, retryAfter(response),
+                        new FileClientException(response, true, null));
+            } else if (response.startsWith("SUCCESS")) {
+                result.complete(response);
+            } else {
+                result.completeExceptionally(new FileClientException(response));
+            }
+        });
+    }
+
+    private void retryOrFail(String line, boolean idempotent, int attemptNumber, CompletableFuture<String> result,
+            long delayMs, FileClientException failure) {
+        if (attemptNumber < maxRetries && !retryScheduler.isShutdown()) {
+            // Added before scheduling: a close() that misses it has already shut the scheduler down,
+            // so the schedule call below is rejected instead
+            awaitingRetry.add(result);
+            try {
+                retryScheduler.schedule(() -> {
+                    awaitingRetry.remove(result);
+                    attempt(line, idempotent, attemptNumber + 1, result);
+                }, delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The client was closed in the meantime
+                awaitingRetry.remove(result);
+                result.completeExceptionally(failure);
+            }
+        } else {
+            result.completeExceptionally(failure);
+        }
+    }
+
+    //Parses the delay out of "BUSY: retry-after <n>ms"
+    private static long retryAfter(String busyReply) {
+        String digits = busyReply.replaceAll("[^0-9]", "");
+        return digits.isEmpty() ? DEFAULT_RETRY_DELAY_MS : Long.parseLong(digits);
+    }
+
+    @Override
+    public void close() {
+        retryScheduler.shutdownNow();
+        for (CompletableFuture<String> result : awaitingRetry) {
+            result.completeExceptionally(new FileClientException("Client closed before the request was retried."));
+        }
+        awaitingRetry.clear();
+        pool.close();
+    }
+}
@@ -0,0 +1,121 @@
+package ca.concordia.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A fixed number of pipelined connections to one server.
+ * Requests go to the connection with the fewest replies outstanding;
+ * connections the server has closed are reopened the next time their slot is picked.
+ * Connecting happens on a background thread with a timeout, so acquiring never blocks the caller.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+
+    private final String host;
+    private final int port;
+    private final int connectTimeoutMs;
+    private final List<CompletableFuture<PipelinedConnection>> connections;
+    private final ExecutorService connector;
+    private boolean closed = false;
+
+    public ConnectionPool(String host, int port, int size) {
+        this(host, port, size, DEFAULT_CONNECT_TIMEOUT_MS);
+    }
+
+    public ConnectionPool(String host, int port, int size, int connectTimeoutMs) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1.");
+        }
+        this.host = host;
+        this.port = port;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.connections = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            connections.add(null);
+        }
+        this.connector = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "file-client-connect");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getSize() {
+        return connections.size();
+    }
+
+    //Returns the least loaded open connection, opening one if its slot is empty or dead.
+    //The future fails with an IOException if the connection cannot be opened in time.
+    synchronized CompletableFuture<PipelinedConnection> acquire() {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("Connection pool is closed"));
+        }
+        int best = -1;
+        int bestPending = Integer.MAX_VALUE;
+        for (int i = 0; i < connections.size(); i++) {
+            CompletableFuture<PipelinedConnection> slot = connections.get(i);
+            if (slot == null || isDead(slot)) {
+                // An unused slot has nothing queued, so it is as good as it gets
+                return open(i);
+            }
+            // A connection still being opened is only picked when every slot is busy connecting
+            int pendingCount = slot.isDone() ? slot.join().getPendingCount() : Integer.MAX_VALUE - 1;
+            if (best == -1 || pendingCount < bestPending) {
+                best = i;
+                bestPending = pendingCount;
+            }
+        }
+        return connections.get(best);
+    }
+
+    private static boolean isDead(CompletableFuture<PipelinedConnection> slot) {
+        return slot.isCompletedExceptionally() || (slot.isDone() && slot.join().isClosed());
+    }
+
+    //Starts connecting slot i; only the bookkeeping happens under the pool's lock
+    private CompletableFuture<PipelinedConnection> open(int i) {
+        CompletableFuture<PipelinedConnection> slot;
+        try {
+            slot = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return new PipelinedConnection(host, port, connectTimeoutMs);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, connector);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new IOException("Connection pool is closed"));
+        }
+        // A connection that finishes opening after close() is closed right away
+        slot.thenAccept(connection -> {
+            if (isClosed()) {
+                connection.close();
+            }
+        });
+        connections.set(i, slot);
+        return slot;
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        connector.shutdownNow();
+        for (CompletableFuture<PipelinedConnection> slot : connections) {
+            if (slot != null && slot.isDone() && !slot.isCompletedExceptionally()) {
+                slot.join().close();
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package ca.concordia.client;
+
+/**
+ * A request the server answered with something other than SUCCESS,
+ * or one that could not be delivered.
+ */
+public class FileClientException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean busy;
+
+    public FileClientException(String message) {
+        this(message, false, null);
+    }
+
+    public FileClientException(String message, boolean busy, Throwable cause) {
+        super(message, cause);
+        this.busy = busy;
+    }
+
+    //True if the server shed the request with BUSY; it was not executed
+    public boolean isBusy() {
+        return busy;
+    }
+}
@@ -0,0 +1,104 @@
+package ca.concordia.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One socket to the server with any number of requests in flight.
+ * The server answers every request on a connection with one line, in order,
+ * so replies are matched to requests first-in first-out by a reader thread.
+ */
+class PipelinedConnection implements AutoCloseable {
+
+    private final Socket socket;
+    private final PrintWriter writer;
+    private final BufferedReader reader;
+    private final Queue<CompletableFuture<String>> pending = new ArrayDeque<>();
+    private volatile boolean closed = false;
+
+    //Connects on the calling thread, giving up after connectTimeoutMs
+    PipelinedConnection(String host, int port, int connectTimeoutMs) throws IOException {
+        this.socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        this.socket.setTcpNoDelay(true);
+        this.writer = new PrintWriter(socket.getOutputStream(), false);
+        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+        Thread readerThread = new Thread(this::readLoop, "file-client-reader-" + socket.getLocalPort());
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    //Sends one request line; the future completes with the server's reply line
+    CompletableFuture<String> send(String line) {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        // Queueing and writing together keeps the pending order identical to the wire order
+        synchronized (this) {
+            if (closed) {
+                reply.completeExceptionally(new IOException("Connection closed"));
+                return reply;
+            }
+            pending.add(reply);
+            writer.println(line);
+            writer.flush();
+            if (writer.checkError()) {
+                close();
+            }
+        }
+        return reply;
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    private void readLoop() {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                CompletableFuture<String> reply;
+                synchronized (this) {
+                    reply = pending.poll();
+                }
+                if (reply != null) {
+                    reply.complete(line);
+                }
+            }
+        } catch (IOException e) {
+            // Fall through and fail whatever is still waiting
+        }
+        close();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            CompletableFuture<String> reply;
+            while ((reply = pending.poll()) != null) {
+                reply.completeExceptionally(new IOException("Connection closed"));
+            }
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package ca.concordia.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncFileClientTests {
+
+    // Reply that makes the fake server drop the connection instead of answering
+    private static final String CLOSE = "<close>";
+
+    private ServerSocket serverSocket;
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private volatile Function<String, String> script;
+    private AsyncFileClient client;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        // A fake server on a free port that answers each line with whatever the test's script returns
+        serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread handler = new Thread(() -> serve(socket));
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    // Closed by tearDown
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        serverSocket.close();
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+                BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                PrintWriter writer = new PrintWriter(s.getOutputStream(), true)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                received.add(line);
+                String reply = script.apply(line);
+                if (CLOSE.equals(reply)) {
+                    return;
+                }
+                if (reply != null) {
+                    writer.println(reply);
+                }
+            }
+        } catch (IOException e) {
+            // Connection dropped
+        }
+    }
+
+    private AsyncFileClient connect(int poolSize, long timeoutMs, int maxRetries) {
+        client = new AsyncFileClient("localhost", serverSocket.getLocalPort(), poolSize,
+                Duration.ofMillis(timeoutMs), maxRetries);
+        return client;
+    }
+
+    private static Throwable failureOf(CompletableFuture<?> future) {
+        CompletionException e = assertThrows(CompletionException.class, future::join);
+        return e.getCause();
+    }
+
+    @Test
+    public void testPipelinedRepliesMatchTheirRequests() {
+        script = line -> "SUCCESS: " + line.substring("READ ".length());
+        connect(1, 5000, 0);
+
+        List<CompletableFuture<String>> reads = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            reads.add(client.read("f" + i));
+        }
+        for (int i = 0; i < reads.size(); i++) {
+            assertEquals("f" + i, reads.get(i).join());
+        }
+    }
+
+    @Test
+    public void testBusyRepliesAreRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+        script = line -> attempts.incrementAndGet() == 1 ? "BUSY: retry-after 20ms" : "SUCCESS: File 'a.txt' created.";
+        connect(1, 5000, 3);
+
+        // Even a CREATE is resent, since the server shed it before running it
+        client.create("a.txt").join();
+        assertEquals(2, received.size());
+    }
+
+    @Test
+    public void testCloseFailsRequestsWaitingForARetry() throws Exception {
+        script = line -> "BUSY: retry-after 60000ms";
+        connect(1, 5000, 3);
+
+        CompletableFuture<Void> create = client.create("a.txt");
+        long deadline = System.currentTimeMillis() + 2000;
+        while (received.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        // Give the BUSY reply time to schedule the retry
+        Thread.sleep(100);
+        client.close();
+
+        Throwable failure = failureOf(create.orTimeout(2, TimeUnit.SECONDS));
+        assertTrue(failure instanceof FileClientException, "unexpected " + failure);
+        assertEquals(1, received.size());
+    }
+
+    @Test
+    public void testRequestsTimeOutWhenTheServerDoesNotAnswer() {
+        script = line -> null;
+        connect(1, 200, 0);
+
+        long start = System.currentTimeMillis();
+        Throwable failure = failureOf(client.read("a.txt"));
+        assertTrue(failure instanceof FileClientException, "unexpected " + failure);
+        assertTrue(System.currentTimeMillis() - start < 2000, "timeout did not fire");
+    }
+
+    @Test
+    public void testOnlyIdempotentRequestsAreResentAfterAConnectionDrops() throws Exception {
+        script = line -> CLOSE;
+        connect(1, 2000, 2);
+
+        Throwable failure = failureOf(client.create("a.txt"));
+        assertTrue(failure instanceof FileClientException, "unexpected " + failure);
+        Thread.sleep(300);
+        assertEquals(1, received.size(), "a CREATE must not be resent: " + received);
+
+        received.clear();
+        failureOf(client.read("a.txt"));
+        assertEquals(3, received.size(), "a READ is retried: " + received);
+    }
+
+    @Test
+    public void testNamesThatWouldBreakTheProtocolAreRejected() throws Exception {
+        script = line -> "SUCCESS: ok";
+        connect(1, 2000, 0);
+
+        assertTrue(failureOf(client.read("big\nLIST")) instanceof FileClientException);
+        assertTrue(failureOf(client.create("a b")) instanceof FileClientException);
+        assertTrue(failureOf(client.delete("")) instanceof FileClientException);
+        // The server would read these as a TTL argument, or reject them after a round trip
+        assertTrue(failureOf(client.write("ttl=3", "foo bar")) instanceof FileClientException);
+        assertTrue(failureOf(client.create("a/b")) instanceof FileClientException);
+        assertTrue(failureOf(client.create("twelve_chars")) instanceof FileClientException);
+        assertEquals("ok", client.read("big").join());
+        assertEquals(List.of("READ big"), received);
+    }
+}
@@ -1,13 +1,101 @@
 package ca.concordia;
 
+import ca.concordia.replication.ReplicationPrimary;
 import ca.concordia.server.FileServer;
 
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
         System.out.printf("Hello and welcome!");
 
-        FileServer server = new FileServer(12345, "filesystem.dat", 10 * 128);
+        // Optional flags:
+        //   --port <port>                 client port (default 12345)
+        //   --data <file>                 file system image (default filesystem.dat)
+        //   --shards <n>                  number of volumes to shard the file system across
+        //   --replicate-to <host:port>    stream mutations to a standby
+        //   --ack <sync|async>            replication ack policy (default async)
+        //   --max-lag <n>                 unacknowledged mutations before the standby is dropped
+        //   --standby <port>              run as a read-only standby fed on this port
+        //   --max-sessions <n>            clients served at once
+        //   --max-queued <n>              clients waiting for a worker before new ones get BUSY
+        //   --max-in-flight <n>           requests executing at once across all clients
+        //   --rate-limit <req/s>          per-client-address request rate (default unlimited)
+        //   --burst <n>                   requests a client may send at once under --rate-limit
+        //   --eviction <lru|none>         evict least recently used files when a volume is full (default none)
+        int port = 12345;
+        String dataFile = "filesystem.dat";
+        int shardCount = 1;
+        String replicateTo = null;
+        ReplicationPrimary.AckPolicy ackPolicy = ReplicationPrimary.AckPolicy.ASYNC;
+        int maxLag = 10000;
+        int standbyPort = -1;
+        int maxSessions = 256;
+        int maxQueued = 64;
+        int maxInFlight = 64;
+        double rateLimit = 0;
+        int burst = 20;
+        boolean lruEviction = false;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--data":
+                    dataFile = args[i + 1];
+                    break;
+                case "--shards":
+                    shardCount = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--replicate-to":
+                    replicateTo = args[i + 1];
+                    break;
+                case "--ack":
+                    ackPolicy = ReplicationPrimary.AckPolicy.valueOf(args[i + 1].toUpperCase());
+                    break;
+                case "--max-lag":
+                    maxLag = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--standby":
+                    standbyPort = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--max-sessions":
+                    maxSessions = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--max-queued":
+                    maxQueued = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--max-in-flight":
+                    maxInFlight = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--rate-limit":
+                    rateLimit = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--burst":
+                    burst = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--eviction":
+                    lruEviction = args[i + 1].equalsIgnoreCase("lru");
+                    if (!lruEviction && !args[i + 1].equalsIgnoreCase("none")) {
+                        throw new IllegalArgumentException("Unknown eviction policy: " + args[i + 1]);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        FileServer server = new FileServer(port, dataFile, 10 * 128, shardCount);
+        server.configureAdmission(maxSessions, maxQueued, maxInFlight);
+        if (rateLimit > 0) {
+            server.setRateLimit(rateLimit, burst);
+        }
+        server.setLruEviction(lruEviction);
+        if (standbyPort != -1) {
+            server.startStandby(standbyPort);
+        } else if (replicateTo != null) {
+            String[] target = replicateTo.split(":");
+            server.enableReplication(target[0], Integer.parseInt(target[1]), ackPolicy, maxLag);
+        }
         // Start the file server
         server.start();
     }
-}
\ No newline at end of file
+}
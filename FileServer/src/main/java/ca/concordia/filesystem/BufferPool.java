@@ -0,0 +1,60 @@
+package ca.concordia.filesystem;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Per-thread scratch buffers for the read/write path.
+ * Buffers are sized in whole blocks and only grow, so once a thread has handled
+ * its largest file it keeps reusing the same memory instead of allocating per call.
+ * A buffer is only valid until the same thread acquires it again.
+ */
+public final class BufferPool {
+
+    private final int blockSize;
+    private final ThreadLocal<ByteBuffer> scratch;
+    private final ThreadLocal<CharsetEncoder> encoder;
+
+    public BufferPool(int blockSize) {
+        this.blockSize = blockSize;
+        this.scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(blockSize));
+        // Same replacement behaviour as String.getBytes() with the default charset
+        this.encoder = ThreadLocal.withInitial(() -> Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE));
+    }
+
+    //Returns this thread's buffer, cleared and holding at least minLength bytes
+    public ByteBuffer acquire(int minLength) {
+        ByteBuffer buffer = scratch.get();
+        if (buffer.capacity() < minLength) {
+            int blocks = (minLength + blockSize - 1) / blockSize;
+            buffer = ByteBuffer.allocate(blocks * blockSize);
+            scratch.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    //Encodes content into this thread's buffer; the encoded bytes are [0, limit) of the returned buffer
+    public ByteBuffer encode(String content) {
+        CharsetEncoder charsetEncoder = encoder.get();
+        int maxLength = (int) Math.ceil(content.length() * (double) charsetEncoder.maxBytesPerChar());
+        ByteBuffer buffer = acquire(maxLength);
+        CharBuffer chars = CharBuffer.wrap(content);
+        charsetEncoder.reset();
+        CoderResult result = charsetEncoder.encode(chars, buffer, true);
+        if (result.isUnderflow()) {
+            result = charsetEncoder.flush(buffer);
+        }
+        if (!result.isUnderflow()) {
+            throw new IllegalStateException("ERROR: Could not encode content.");
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
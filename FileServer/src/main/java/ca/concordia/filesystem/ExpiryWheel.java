@@ -0,0 +1,88 @@
+package ca.concordia.filesystem;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hashed timer wheel for file expiry.
+ * A deadline lands in the slot of its tick, so each sweep only looks at the slots
+ * whose ticks have passed instead of at every file. Deadlines more than one turn of
+ * the wheel away simply stay in their slot until a later turn.
+ * A file has at most one deadline: scheduling it again replaces the old one.
+ * Not thread safe; FileSystemManager only uses it with its lock held.
+ */
+class ExpiryWheel {
+
+    private final long tickMillis;
+    private final List<List<Deadline>> slots;
+    private final Map<String, Deadline> deadlines = new HashMap<>(); // The current deadline of each file
+    private long lastTick;
+
+    ExpiryWheel(int slotCount, long tickMillis, long now) {
+        this.tickMillis = tickMillis;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayList<>());
+        }
+        this.lastTick = now / tickMillis;
+    }
+
+    void schedule(String fileName, long expiresAt) {
+        // A deadline in an already swept tick goes to the next slot to be swept
+        long tick = Math.max(expiresAt / tickMillis, lastTick + 1);
+        Deadline deadline = new Deadline(fileName, expiresAt, (int) (tick % slots.size()));
+        slots.get(deadline.slot).add(deadline);
+        remove(deadlines.put(fileName, deadline));
+    }
+
+    //Drops the file's deadline, if it has one
+    void cancel(String fileName) {
+        remove(deadlines.remove(fileName));
+    }
+
+    //Number of deadlines waiting in the wheel
+    int size() {
+        return deadlines.size();
+    }
+
+    private void remove(Deadline deadline) {
+        if (deadline != null) {
+            slots.get(deadline.slot).remove(deadline);
+        }
+    }
+
+    //Removes every deadline that is due at now and adds it to due
+    void advance(long now, List<Deadline> due) {
+        long currentTick = now / tickMillis;
+        // After a long pause one full turn covers every slot
+        long firstTick = Math.max(lastTick + 1, currentTick - slots.size() + 1);
+        for (long tick = firstTick; tick <= currentTick; tick++) {
+            Iterator<Deadline> iterator = slots.get((int) (tick % slots.size())).iterator();
+            while (iterator.hasNext()) {
+                Deadline deadline = iterator.next();
+                if (deadline.expiresAt <= now) {
+                    iterator.remove();
+                    deadlines.remove(deadline.fileName, deadline);
+                    due.add(deadline);
+                }
+            }
+        }
+        // The current tick is not over yet, so its slot is looked at again on the next sweep
+        lastTick = Math.max(lastTick, currentTick - 1);
+    }
+
+    static class Deadline {
+        final String fileName;
+        final long expiresAt;
+        private final int slot;
+
+        Deadline(String fileName, long expiresAt, int slot) {
+            this.fileName = fileName;
+            this.expiresAt = expiresAt;
+            this.slot = slot;
+        }
+    }
+}
@@ -5,24 +5,82 @@ import ca.concordia.filesystem.datastructures.FNode;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
-public class FileSystemManager {
-    private static final int FENTRY_SIZE = 15;
+public class FileSystemManager implements AutoCloseable {
+    private static final int INLINE_DATA_SIZE = 32; // Files up to this size live in their FEntry, not in blocks
+    private static final int FENTRY_SIZE = 23 + INLINE_DATA_SIZE; // name, size, first block, expiry, inline data
     private final int MAXFILES = 5;
     private final int MAXBLOCKS = 10;
     private final static FileSystemManager instance = null;
     private final RandomAccessFile disk;
-    private final ReentrantLock globalLock = new ReentrantLock();
+    // Fair, so a stream of writers cannot keep readers waiting indefinitely (and vice versa)
+    private final ReentrantLock globalLock = new ReentrantLock(true);
 
     private static final int BLOCK_SIZE = 128; // Example block size
+    private static final long EXPIRY_TICK_MS = 1000; // How often the sweeper removes expired files
+    private static final int EXPIRY_WHEEL_SLOTS = 64;
+    public static final long MAX_TTL_MILLIS = 365L * 24 * 60 * 60 * 1000; // Longest time to live a file may get
 
     private FEntry[] inodeTable; // Array of inodes
     private boolean[] freeBlockList; // Bitmap for free blocks
     private FNode[] fNodeTable;
     private int metadataBlocks;
+    private volatile MutationListener mutationListener;
+
+    // Reused on every call so the read/write path does not allocate; guarded by globalLock
+    // except bufferPool, which hands out per-thread buffers
+    private final BufferPool bufferPool = new BufferPool(BLOCK_SIZE);
+    private final int[] allocatedBlocks = new int[MAXBLOCKS];
+    private ByteBuffer metadataBuffer;
+
+    // Lazy reclamation: deleted blocks stay marked used until the reclaimer has zeroed them.
+    // The queue and batch are guarded by globalLock; the zeroing itself runs without it.
+    private final int[] reclaimQueue = new int[MAXBLOCKS];
+    private int reclaimQueueSize = 0;
+    private final int[] reclaimBatch = new int[MAXBLOCKS]; // Owned by the reclaimer while it zeroes without the lock
+    private final int[] syncReclaimBatch = new int[MAXBLOCKS]; // Used by reclaimNow(), which holds the lock throughout
+    private int blocksBeingReclaimed = 0;
+    private final byte[] zeroRun = new byte[MAXBLOCKS * BLOCK_SIZE]; // Never written to
+    private final Condition reclaimNeeded = globalLock.newCondition();
+    private final Condition reclaimDone = globalLock.newCondition();
+
+    // Transaction state, only set between beginTransaction() and commit/rollback (globalLock held)
+    private List<Integer> pendingRelease; // Blocks freed by the transaction, queued for reclaim on commit
+    private List<Mutation> pendingMutations; // Reported to the listener on commit
+    private FEntry[] inodeSnapshot;
+    private boolean[] freeBlockSnapshot;
+    private FNode[] fNodeSnapshot;
+    private boolean transactionPrepared; // Its metadata is on disk, so a rollback has to write the old one back
+
+    // File expiry: deadlines are kept in a timer wheel so a sweep only visits the files that are due.
+    // Guarded by globalLock.
+    private final ExpiryWheel expiryWheel = new ExpiryWheel(EXPIRY_WHEEL_SLOTS, EXPIRY_TICK_MS, System.currentTimeMillis());
+    private volatile boolean lruEviction = false;
+
+    // Read-mostly metadata: an immutable view republished after every change, read without the lock.
+    // metadataVersion is odd while a writer is changing data blocks and even once the new view is out;
+    // lock-free block reads check it did not move, like a seqlock. Both are only written under globalLock.
+    private volatile MetadataView metadataView;
+    private volatile long metadataVersion = 0;
+    // Lock-free reads use their own channel: an interrupt during a channel read closes the channel,
+    // and it must not take the volume's RandomAccessFile down with it. Reopened when that happens.
+    private final Path imagePath;
+    private volatile FileChannel readChannel;
+    private boolean viewStale = false; // Metadata changed since the last publish; guarded by globalLock
+
+    private final Thread reclaimer;
+    private final Thread expirySweeper;
+    private volatile boolean closed = false;
 
     public FileSystemManager(String filename, int totalSize) {
         // Initialize the file system manager with a file
@@ -30,6 +88,8 @@ public class FileSystemManager {
             try {
                 // Initialize the RandomAccessFile (disk)
                 this.disk = new RandomAccessFile(filename, "rw");
+                this.imagePath = Path.of(filename);
+                this.readChannel = FileChannel.open(imagePath, StandardOpenOption.READ);
                 this.disk.setLength(totalSize);
 
                 // Initialize the inode table with MAXFILES entries
@@ -44,14 +104,32 @@ public class FileSystemManager {
                     this.freeBlockList[i] = true; // All blocks initially free
                 }
 
+                // Initialize the FNode table, one node per block
+                this.fNodeTable = new FNode[MAXBLOCKS];
+                for (int i = 0; i < MAXBLOCKS; i++) {
+                    this.fNodeTable[i] = new FNode();
+                }
+
                 // Calculate metadata size and mark initial blocks as used
-                int metadataSize = (15 * MAXFILES) + (8 * MAXBLOCKS);
-                int metadataBlocks = (int) Math.ceil((double) metadataSize / BLOCK_SIZE);
+                int metadataSize = (FENTRY_SIZE * MAXFILES) + (8 * MAXBLOCKS);
+                this.metadataBlocks = (int) Math.ceil((double) metadataSize / BLOCK_SIZE);
+                this.metadataBuffer = ByteBuffer.allocate(metadataSize);
 
                 // Mark metadata blocks as used
                 for (int i = 0; i < metadataBlocks && i < MAXBLOCKS; i++) {
                     this.freeBlockList[i] = false;
                 }
+                this.metadataView = new MetadataView(metadataVersion, inodeTable, fNodeTable);
+
+                // Zeroes deleted blocks in the background so deletes only touch metadata
+                this.reclaimer = new Thread(this::reclaimLoop, "block-reclaimer-" + filename);
+                reclaimer.setDaemon(true);
+                reclaimer.start();
+
+                // Removes files whose time to live has run out, one metadata sync per sweep
+                this.expirySweeper = new Thread(this::expiryLoop, "expiry-sweeper-" + filename);
+                expirySweeper.setDaemon(true);
+                expirySweeper.start();
 
             } catch (Exception e) {
                 throw new RuntimeException("Failed to initialize file system: " + e.getMessage(), e);
@@ -62,7 +140,54 @@ public class FileSystemManager {
 
     }
 
+    //Stops the reclaimer and the expiry sweeper and closes the image; the volume cannot be used afterwards.
+    //Nothing is flushed here: queued blocks are not zeroed, and a create or a block-backed write that no later
+    //delete, inline write, commit or sweep synced is not in the metadata on disk.
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        reclaimer.interrupt();
+        expirySweeper.interrupt();
+        try {
+            reclaimer.join();
+            expirySweeper.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        readChannel.close();
+        disk.close();
+    }
+
+    //Registers a listener that sees every successful create, write and delete
+    public void setMutationListener(MutationListener mutationListener) {
+        this.mutationListener = mutationListener;
+    }
+
+    //When enabled, a create or write that runs out of inodes or blocks evicts the least recently used files
+    //instead of failing. Files are never evicted inside a batch, since their blocks only come back on commit.
+    public void setLruEviction(boolean enabled) {
+        this.lruEviction = enabled;
+    }
+
+    //Reports a mutation to the listener; called with globalLock held so the order matches the volume.
+    //The Mutation is only built when someone is listening.
+    private void notifyMutation(Mutation.Type type, String fileName, String content, long ttlMillis) {
+        if (pendingMutations != null) {
+            pendingMutations.add(new Mutation(type, fileName, content, ttlMillis));
+            return;
+        }
+        MutationListener listener = mutationListener;
+        if (listener != null) {
+            listener.onMutation(new Mutation(type, fileName, content, ttlMillis));
+        }
+    }
+
     public void createFile(String fileName) throws Exception {
+        createFile(fileName, 0);
+    }
+
+    //Creates a file that is removed ttlMillis after creation; 0 means it never expires
+    public void createFile(String fileName, long ttlMillis) throws Exception {
         // Validate filename - check for null or empty
         if (fileName == null || fileName.isEmpty()) {
             throw new IllegalArgumentException("ERROR: Filename cannot be empty.");
@@ -79,23 +204,29 @@ public class FileSystemManager {
             throw new IllegalArgumentException(
                     "ERROR: Filename contains invalid characters. Only alphanumeric, dots, underscores, and hyphens are allowed.");
         }
+        validateTtl(ttlMillis);
 
         globalLock.lock();
         try {
-            // Check if file already exists in inode table
+            long now = System.currentTimeMillis();
+
+            // Check if file already exists in inode table; an expired one the sweeper has not reached is replaced
             for (int i = 0; i < MAXFILES; i++) {
                 if (inodeTable[i].isInUse() && inodeTable[i].getFilename().equals(fileName)) {
-                    throw new IllegalArgumentException("ERROR: File '" + fileName + "' already exists.");
+                    if (!inodeTable[i].isExpired(now)) {
+                        throw new IllegalArgumentException("ERROR: File '" + fileName + "' already exists.");
+                    }
+                    removeEntry(inodeTable[i]);
                 }
             }
 
-            // Find a free inode slot
-            int freeSlot = -1;
-            for (int i = 0; i < MAXFILES; i++) {
-                if (!inodeTable[i].isInUse()) {
-                    freeSlot = i;
-                    break;
-                }
+            // Find a free inode slot, making room by expiring or evicting files if there is none
+            int freeSlot = findFreeSlot();
+            if (freeSlot == -1 && removeExpiredEntries(now) > 0) {
+                freeSlot = findFreeSlot();
+            }
+            while (freeSlot == -1 && evictLeastRecentlyUsed(null)) {
+                freeSlot = findFreeSlot();
             }
 
             // Check if maximum file limit reached
@@ -106,17 +237,27 @@ public class FileSystemManager {
             // Create new FEntry with empty content (size = 0, firstBlock = -1)
             FEntry newEntry = new FEntry(fileName, (short) 0, (short) -1);
 
+            newEntry.setLastAccess(System.nanoTime());
+            setExpiry(newEntry, ttlMillis, now);
+
             // Update inode table with the new entry
             inodeTable[freeSlot] = newEntry;
+            viewStale = true;
+            notifyMutation(Mutation.Type.CREATE, fileName, null, ttlMillis);
 
             System.out.println("File '" + fileName + "' created successfully in inode slot " + freeSlot);
 
         } finally {
-            globalLock.unlock();
+            publishAndUnlock();
         }
     }
 
     public void writeFile(String fileName, String content) throws Exception {
+        writeFile(fileName, content, 0);
+    }
+
+    //Writes the file and, if ttlMillis is positive, makes it expire ttlMillis from now; 0 keeps its current expiry
+    public void writeFile(String fileName, String content, long ttlMillis) throws Exception {
         // Validate filename
         if (fileName == null || fileName.isEmpty()) {
             throw new IllegalArgumentException("ERROR: Filename cannot be empty.");
@@ -127,35 +268,59 @@ public class FileSystemManager {
             throw new IllegalArgumentException("ERROR: Content cannot be null.");
         }
 
+        // Every character takes at least one byte, so this cannot fit; checked before encoding so one huge
+        // WRITE does not leave an equally huge scratch buffer behind on this thread
+        if (content.length() > getMaxFileSize()) {
+            throw new IllegalStateException("ERROR: Insufficient disk space. Content exceeds the maximum file size of "
+                    + getMaxFileSize() + " bytes.");
+        }
+        validateTtl(ttlMillis);
+
         globalLock.lock();
         try {
-            // Find the file's inode in the inode table
-            int inodeIndex = -1;
-            for (int i = 0; i < MAXFILES; i++) {
-                if (inodeTable[i].isInUse() && inodeTable[i].getFilename().equals(fileName)) {
-                    inodeIndex = i;
-                    break;
-                }
-            }
+            ByteBuffer contentBytes = bufferPool.encode(content);
+            int contentSize = contentBytes.limit();
 
-            // Check if file exists
-            if (inodeIndex == -1) {
-                throw new IllegalArgumentException("ERROR: File '" + fileName + "' not found.");
-            }
+            // Calculate required number of blocks for the content; small content is inlined and needs none
+            boolean inline = contentSize <= INLINE_DATA_SIZE;
+            int requiredBlocks = inline ? 0 : (int) Math.ceil((double) contentSize / BLOCK_SIZE);
 
-            FEntry fileEntry = inodeTable[inodeIndex];
-            byte[] contentBytes = content.getBytes();
-            int contentSize = contentBytes.length;
+            long now;
+            FEntry fileEntry;
+            int availableBlocks;
+            while (true) {
+                now = System.currentTimeMillis();
+                fileEntry = findWritableEntry(fileName, now);
 
-            // Calculate required number of blocks for the content
-            int requiredBlocks = (int) Math.ceil((double) contentSize / BLOCK_SIZE);
+                // Check if we have enough free blocks, counting the ones the old content will give back
+                availableBlocks = availableBlocksFor(fileEntry);
 
-            // Check if we have enough free blocks
-            int availableBlocks = 0;
-            for (int i = 0; i < MAXBLOCKS; i++) {
-                if (freeBlockList[i]) {
-                    availableBlocks++;
+                if (requiredBlocks > availableBlocks && removeExpiredEntries(now) > 0) {
+                    availableBlocks = availableBlocksFor(fileEntry);
+                }
+
+                if (requiredBlocks > availableBlocks && reclaimQueueSize > 0) {
+                    // Deleted blocks are waiting for the reclaimer; take them back now instead of failing
+                    reclaimNow();
+                    availableBlocks = availableBlocksFor(fileEntry);
+                }
+
+                // Still short: evict other files, least recently used first, and take their blocks back right away.
+                // Content bigger than the whole volume can never fit, so nothing is evicted for it.
+                while (requiredBlocks > availableBlocks && requiredBlocks <= getDataBlockCount()
+                        && evictLeastRecentlyUsed(fileEntry)) {
+                    reclaimNow();
+                    availableBlocks = availableBlocksFor(fileEntry);
+                }
+
+                if (requiredBlocks > availableBlocks && blocksBeingReclaimed > 0 && pendingRelease == null) {
+                    // The reclaimer is zeroing a batch. Waiting lets go of the lock, so the file may have been
+                    // deleted or rewritten in the meantime: look it up and check the space again afterwards.
+                    // Inside a transaction the lock must not be let go.
+                    reclaimDone.awaitUninterruptibly();
+                    continue;
                 }
+                break;
             }
 
             if (requiredBlocks > availableBlocks) {
@@ -164,8 +329,13 @@ public class FileSystemManager {
                                 + availableBlocks + " blocks.");
             }
 
+            // Lock-free readers of the old content must notice its blocks being reused
+            beginDataChange();
+
+            // Release the blocks held by the previous content before allocating
+            freeBlockChain(fileEntry.getFirstBlock());
+
             // Allocate free blocks and write content
-            int[] allocatedBlocks = new int[requiredBlocks];
             int blockCount = 0;
 
             // Find and allocate free blocks
@@ -173,6 +343,11 @@ public class FileSystemManager {
                 if (freeBlockList[i]) {
                     allocatedBlocks[blockCount] = i;
                     freeBlockList[i] = false; // Mark block as used
+                    fNodeTable[i].setBlockIndex(i);
+                    fNodeTable[i].setNext(-1);
+                    if (blockCount > 0) {
+                        fNodeTable[allocatedBlocks[blockCount - 1]].setNext(i);
+                    }
                     blockCount++;
                 }
             }
@@ -188,81 +363,300 @@ public class FileSystemManager {
 
                 // Write content to disk at the calculated offset
                 disk.seek(blockOffset);
-                disk.write(contentBytes, startOffset, bytesToWrite);
+                disk.write(contentBytes.array(), startOffset, bytesToWrite);
+            }
+
+            // Keep small content in the inode itself; a file that grew past the limit drops it
+            boolean wasInline = fileEntry.isInline();
+            if (inline) {
+                byte[] inlineData = fileEntry.getInlineData();
+                if (inlineData == null) {
+                    inlineData = new byte[INLINE_DATA_SIZE];
+                }
+                System.arraycopy(contentBytes.array(), 0, inlineData, 0, contentSize);
+                fileEntry.setInlineData(inlineData);
+            } else {
+                fileEntry.setInlineData(null);
             }
 
             // Update the inode with block pointers and file size
-            fileEntry.setFirstBlock((short) allocatedBlocks[0]);
+            fileEntry.setFirstBlock(requiredBlocks > 0 ? (short) allocatedBlocks[0] : (short) -1);
             fileEntry.setFilesize((short) contentSize);
+            fileEntry.setLastAccess(System.nanoTime());
+            setExpiry(fileEntry, ttlMillis, now);
+
+            // Inline content lives only in the inode record, so it is on disk once the metadata is.
+            // Inside a transaction the commit syncs it.
+            if ((inline || wasInline) && pendingRelease == null) {
+                writeMetadataToDisk();
+            }
+            notifyMutation(Mutation.Type.WRITE, fileName, content, ttlMillis);
 
             System.out.println("File '" + fileName + "' written successfully with " + contentSize + " bytes across "
                     + requiredBlocks + " block(s).");
 
         } finally {
-            globalLock.unlock();
+            publishAndUnlock();
         }
     }
     //This is the function to list the files iinside the file system
+    //Served from the published metadata view, without locking
     public String[] listFiles() {
+        return metadataView.listFiles(System.currentTimeMillis());
+    }
+
+    //Number of files currently stored, used for the per-volume stats
+    public int getFileCount() {
+        return metadataView.getFileCount();
+    }
+
+    //Marks the data blocks as changing, so lock-free reads that overlap fall back to the lock.
+    //Called with globalLock held; publishAndUnlock() ends it.
+    private void beginDataChange() {
+        if ((metadataVersion & 1) == 0) {
+            metadataVersion++;
+        }
+        viewStale = true;
+    }
+
+    //Publishes a new view if the metadata changed outside a transaction, then unlocks.
+    //Inside a transaction the view keeps showing the state before it until commit or rollback.
+    private void publishAndUnlock() {
+        try {
+            if (viewStale && pendingMutations == null) {
+                long version = (metadataVersion | 1) + 1;
+                metadataView = new MetadataView(version, inodeTable, fNodeTable);
+                metadataVersion = version;
+                viewStale = false;
+            }
+        } finally {
+            globalLock.unlock();
+        }
+    }
+
+    //Number of blocks still available for file content
+    public int getFreeBlockCount() {
         globalLock.lock();
         try {
-            List<String> fileList = new ArrayList<>();
-            for (FEntry entry : inodeTable) {
-                if (entry != null) {
-                    fileList.add(entry.getFilename());
+            int count = 0;
+            for (int i = 0; i < MAXBLOCKS; i++) {
+                if (freeBlockList[i]) {
+                    count++;
                 }
             }
-            return fileList.toArray(new String[0]);
+            return count;
+        } finally {
+            globalLock.unlock();
+        }
+    }
+
+    //Number of blocks usable for file content (metadata blocks excluded)
+    public int getDataBlockCount() {
+        return MAXBLOCKS - metadataBlocks;
+    }
+
+    //Counts the blocks in the chain starting at firstBlock
+    private int countBlockChain(short firstBlock) {
+        int count = 0;
+        short currentBlock = firstBlock;
+        while (currentBlock != -1) {
+            count++;
+            currentBlock = (short) fNodeTable[currentBlock].getNext();
+        }
+        return count;
+    }
+
+    //Walks a block chain starting at firstBlock and gives every block back to the free list
+    private void freeBlockChain(short firstBlock) {
+        short currentBlock = firstBlock;
+        while (currentBlock != -1) {
+            int nextBlock = fNodeTable[currentBlock].getNext();
+            if (pendingRelease != null) {
+                pendingRelease.add((int) currentBlock);
+            } else {
+                freeBlockList[currentBlock] = true;
+            }
+            fNodeTable[currentBlock].clear();
+            currentBlock = (short) nextBlock;
+        }
+    }
+    //Finds the live file a write goes to; expired files the sweeper has not reached yet count as gone
+    private FEntry findWritableEntry(String fileName, long now) {
+        for (FEntry entry : inodeTable) {
+            if (entry.isInUse() && entry.getFilename().equals(fileName) && !entry.isExpired(now)) {
+                return entry;
+            }
+        }
+        throw new IllegalArgumentException("ERROR: File '" + fileName + "' not found.");
+    }
+
+    //Blocks a write to entry can use: the free ones plus the ones its old content gives back.
+    //Inside a transaction freed blocks only become reusable on commit.
+    private int availableBlocksFor(FEntry entry) {
+        int availableBlocks = getFreeBlockCount();
+        if (pendingRelease == null) {
+            availableBlocks += countBlockChain(entry.getFirstBlock());
+        }
+        return availableBlocks;
+    }
+
+    //Queues freed blocks for the reclaimer; called with globalLock held
+    private void queueForReclaim(int blockIndex) {
+        reclaimQueue[reclaimQueueSize++] = blockIndex;
+        reclaimNeeded.signal();
+    }
+
+    //Number of deleted blocks not yet zeroed and returned to the free list
+    public int getPendingReclaimCount() {
+        globalLock.lock();
+        try {
+            return reclaimQueueSize + blocksBeingReclaimed;
         } finally {
             globalLock.unlock();
         }
     }
-    //This block will be used when we need to reset data in tables to null
-    private void overwriteBlocktoNull(int blockIndex) throws IOException {
-        long position = metadataBlocks * BLOCK_SIZE + (blockIndex - metadataBlocks) * BLOCK_SIZE;
-        disk.seek(position);
-        disk.write(new byte[BLOCK_SIZE]);
+
+    //Moves the queue into batch, sorted so neighbouring blocks can be zeroed with one write
+    private int drainReclaimQueue(int[] batch) {
+        int count = reclaimQueueSize;
+        System.arraycopy(reclaimQueue, 0, batch, 0, count);
+        reclaimQueueSize = 0;
+        Arrays.sort(batch, 0, count);
+        return count;
+    }
+
+    //Hands the zeroed blocks back to the allocator; called with globalLock held
+    private void releaseReclaimed(int[] batch, int count) {
+        for (int i = 0; i < count; i++) {
+            freeBlockList[batch[i]] = true;
+            if (freeBlockSnapshot != null) {
+                // Keep them free if the open transaction rolls back
+                freeBlockSnapshot[batch[i]] = true;
+            }
+        }
+    }
+
+    private void reclaimLoop() {
+        ByteBuffer zeros = ByteBuffer.wrap(zeroRun);
+        while (true) {
+            int count;
+            globalLock.lock();
+            try {
+                while (reclaimQueueSize == 0) {
+                    reclaimNeeded.await();
+                }
+                count = drainReclaimQueue(reclaimBatch);
+                blocksBeingReclaimed = count;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                globalLock.unlock();
+            }
+
+            // The blocks are still marked used, so nobody else touches them while they are zeroed.
+            // Positional channel writes leave the file pointer used by the locked paths alone.
+            try {
+                for (int start = 0; start < count; ) {
+                    int end = start + 1;
+                    while (end < count && reclaimBatch[end] == reclaimBatch[end - 1] + 1) {
+                        end++;
+                    }
+                    zeros.clear().limit((end - start) * BLOCK_SIZE);
+                    long position = (long) reclaimBatch[start] * BLOCK_SIZE;
+                    while (zeros.hasRemaining()) {
+                        position += disk.getChannel().write(zeros, position);
+                    }
+                    start = end;
+                }
+                disk.getChannel().force(false);
+            } catch (IOException e) {
+                if (closed) {
+                    // Interrupted by close(), which closes the channel too
+                    return;
+                }
+                // A stale block is never readable: file sizes bound every read and writes overwrite it
+                System.err.println("Failed to zero reclaimed blocks: " + e.getMessage());
+            }
+
+            globalLock.lock();
+            try {
+                releaseReclaimed(reclaimBatch, count);
+                blocksBeingReclaimed = 0;
+                reclaimDone.signalAll();
+            } finally {
+                globalLock.unlock();
+            }
+        }
+    }
+
+    //Reclaims queued blocks on the caller's thread when a write needs the space.
+    //Called with globalLock held and never lets go of it; a batch the reclaimer is already zeroing is left alone.
+    //Drains into its own array: the reclaimer still reads reclaimBatch without the lock and releases what is in it.
+    private void reclaimNow() throws IOException {
+        if (reclaimQueueSize == 0) {
+            return;
+        }
+        // Blocks of files evicted or expired by this call are not out of the published view yet
+        beginDataChange();
+        int count = drainReclaimQueue(syncReclaimBatch);
+        for (int start = 0; start < count; ) {
+            int end = start + 1;
+            while (end < count && syncReclaimBatch[end] == syncReclaimBatch[end - 1] + 1) {
+                end++;
+            }
+            disk.seek((long) syncReclaimBatch[start] * BLOCK_SIZE);
+            disk.write(zeroRun, 0, (end - start) * BLOCK_SIZE);
+            start = end;
+        }
         disk.getFD().sync();
+        releaseReclaimed(syncReclaimBatch, count);
     }
+    //Serializes the whole metadata region into one buffer and writes it with a single call
     private void writeMetadataToDisk() throws IOException {
-        disk.seek(0);
+        metadataBuffer.clear();
 
         for (FEntry entry : inodeTable) {
-            if (entry != null) {
+            if (entry.isInUse()) {
                 writeFEntry(entry);
             } else {
-                disk.write(new byte[FENTRY_SIZE]);
+                metadataBuffer.put(zeroRun, 0, FENTRY_SIZE);
             }
         }
 
         for (FNode node : fNodeTable) {
-            disk.writeInt(node.getBlockIndex());
-            disk.writeInt(node.getNext());
+            metadataBuffer.putInt(node.getBlockIndex());
+            metadataBuffer.putInt(node.getNext());
         }
 
+        disk.seek(0);
+        disk.write(metadataBuffer.array(), 0, metadataBuffer.position());
         disk.getFD().sync();
     }
-    //this will write the file entries to the file system
-    private void writeFEntry(FEntry entry) throws IOException {
-        byte[] filenameBytes = entry.getFilename().getBytes();
-        disk.write(filenameBytes);
-        for (int i = filenameBytes.length; i < 11; i++) {
-            disk.writeByte(0);
+    //this will write the file entries to the metadata buffer
+    private void writeFEntry(FEntry entry) {
+        // Filenames are validated to be ASCII, so each char is one byte
+        String filename = entry.getFilename();
+        for (int i = 0; i < 11; i++) {
+            metadataBuffer.put(i < filename.length() ? (byte) filename.charAt(i) : 0);
+        }
+        metadataBuffer.putShort(entry.getFilesize());
+        metadataBuffer.putShort(entry.getFirstBlock());
+        metadataBuffer.putLong(entry.getExpiresAt());
+        if (entry.isInline()) {
+            metadataBuffer.put(entry.getInlineData(), 0, INLINE_DATA_SIZE);
+        } else {
+            metadataBuffer.put(zeroRun, 0, INLINE_DATA_SIZE);
         }
-        disk.writeShort(entry.getFilesize());
-        disk.writeShort(entry.getFirstBlock());
     }
     //this function will then delete the desired files from our system after we give it the file name
     public void deleteFile(String fileName) throws Exception {
         globalLock.lock();
         try {
             FEntry targetEntry = null;
-            int filesystemEntryIndex = -1;
 
             for (int i = 0; i < MAXFILES; i++) {
-                if (inodeTable[i] != null && inodeTable[i].getFilename().equals(fileName)) {
+                if (inodeTable[i].isInUse() && inodeTable[i].getFilename().equals(fileName)) {
                     targetEntry = inodeTable[i];
-                    filesystemEntryIndex = i;
                     break;
                 }
             }
@@ -271,65 +665,434 @@ public class FileSystemManager {
                 throw new Exception("ERROR: file '" + fileName + "' does'nt exist");
             }
 
-            short currentBlock = targetEntry.getFirstBlock();
-            while (currentBlock != -1) {
-                FNode currentNode = fNodeTable[currentBlock];
-                freeBlockList[currentBlock] = false;
-                overwriteBlocktoNull(currentBlock);
-                int nextBlock = currentNode.getNext();
-                fNodeTable[currentBlock] = new FNode(-1);
-                currentBlock = (short) nextBlock;
+            removeEntry(targetEntry);
+
+            // Only metadata is synced here; the blocks are zeroed by the reclaimer
+            if (pendingRelease == null) {
+                writeMetadataToDisk();
             }
+        } finally {
+            publishAndUnlock();
+        }
+    }
+
+    //Frees the entry and its blocks and reports the delete; the caller holds globalLock and syncs the metadata
+    private void removeEntry(FEntry targetEntry) {
+        String fileName = targetEntry.getFilename();
+        short currentBlock = targetEntry.getFirstBlock();
+        while (currentBlock != -1) {
+            FNode currentNode = fNodeTable[currentBlock];
+            if (pendingRelease != null) {
+                // Queued on commit, so a rollback still finds the old content
+                pendingRelease.add((int) currentBlock);
+            } else {
+                queueForReclaim(currentBlock);
+            }
+            int nextBlock = currentNode.getNext();
+            currentNode.clear();
+            currentBlock = (short) nextBlock;
+        }
 
-            inodeTable[filesystemEntryIndex] = null;
+        expiryWheel.cancel(fileName);
+        targetEntry.clear();
+        viewStale = true;
+        notifyMutation(Mutation.Type.DELETE, fileName, null, 0);
+    }
+
+    private int findFreeSlot() {
+        for (int i = 0; i < MAXFILES; i++) {
+            if (!inodeTable[i].isInUse()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void validateTtl(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ERROR: Time to live cannot be negative.");
+        }
+        // Also keeps now + ttlMillis far from overflowing into an expiry in the past
+        if (ttlMillis > MAX_TTL_MILLIS) {
+            throw new IllegalArgumentException("ERROR: Time to live cannot exceed " + MAX_TTL_MILLIS / 1000 + " seconds.");
+        }
+    }
+
+    //Sets a new expiry when ttlMillis is positive; called with globalLock held
+    private void setExpiry(FEntry entry, long ttlMillis, long now) {
+        if (ttlMillis > 0) {
+            entry.setExpiresAt(now + ttlMillis);
+            expiryWheel.schedule(entry.getFilename(), entry.getExpiresAt());
+        }
+    }
 
+    //Removes every expired file without waiting for the sweeper, when a create or write needs the room.
+    //Called with globalLock held; returns how many files were removed.
+    private int removeExpiredEntries(long now) throws IOException {
+        int removed = 0;
+        for (FEntry entry : inodeTable) {
+            if (entry.isInUse() && entry.isExpired(now)) {
+                removeEntry(entry);
+                removed++;
+            }
+        }
+        if (removed > 0 && pendingRelease == null) {
             writeMetadataToDisk();
-        } finally {
-            globalLock.unlock();
+        }
+        return removed;
+    }
+
+    //Evicts the least recently used file other than keep, if LRU eviction is on and no batch is open.
+    //Called with globalLock held; returns false when nothing could be evicted.
+    private boolean evictLeastRecentlyUsed(FEntry keep) throws IOException {
+        if (!lruEviction || pendingRelease != null) {
+            return false;
+        }
+        FEntry victim = null;
+        for (FEntry entry : inodeTable) {
+            if (entry.isInUse() && entry != keep
+                    && (victim == null || entry.getLastAccess() - victim.getLastAccess() < 0)) {
+                victim = entry;
+            }
+        }
+        if (victim == null) {
+            return false;
+        }
+        System.out.println("Evicting least recently used file '" + victim.getFilename() + "'");
+        removeEntry(victim);
+        writeMetadataToDisk();
+        return true;
+    }
+
+    private void expiryLoop() {
+        List<ExpiryWheel.Deadline> due = new ArrayList<>();
+        while (true) {
+            try {
+                Thread.sleep(EXPIRY_TICK_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            globalLock.lock();
+            try {
+                long now = System.currentTimeMillis();
+                expiryWheel.advance(now, due);
+                int removed = 0;
+                for (ExpiryWheel.Deadline deadline : due) {
+                    // Skip deadlines that no longer apply: the file was deleted, recreated or given a new TTL
+                    for (FEntry entry : inodeTable) {
+                        if (entry.isInUse() && entry.getFilename().equals(deadline.fileName)
+                                && entry.getExpiresAt() == deadline.expiresAt) {
+                            removeEntry(entry);
+                            removed++;
+                            break;
+                        }
+                    }
+                }
+                due.clear();
+                if (removed > 0) {
+                    writeMetadataToDisk();
+                    System.out.println("Expired " + removed + " file(s)");
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to sync metadata after expiring files: " + e.getMessage());
+            } finally {
+                publishAndUnlock();
+            }
         }
     }
     //this function will read the file from the saved data table list
     public byte[] readFile(String fileName) throws Exception {
+        // Lock-free first: look the file up in the published view and read its blocks directly
+        long version = metadataVersion;
+        MetadataView view = metadataView;
+        if (view.version == version) {
+            int index = view.indexOf(fileName, System.currentTimeMillis());
+            if (index == -1) {
+                throw fileNotFound(fileName);
+            }
+            byte[] content = new byte[view.getSize(index)];
+            if (readFromView(view, index, content)) {
+                return content;
+            }
+        }
+
+        // A writer got in the way
         globalLock.lock();
         try {
-            FEntry targetEntry = null;
-            for (FEntry entry : inodeTable) {
-                if (entry != null && entry.getFilename().equals(fileName)) {
-                    targetEntry = entry;
-                    break;
+            FEntry targetEntry = findEntry(fileName);
+            byte[] content = new byte[targetEntry.getFilesize()];
+            readContent(targetEntry, content);
+            return content;
+        } finally {
+            globalLock.unlock();
+        }
+    }
+
+    //Reads the file into a caller supplied buffer and returns its size, so repeated reads do not allocate
+    public int readFile(String fileName, byte[] buffer) throws Exception {
+        long version = metadataVersion;
+        MetadataView view = metadataView;
+        if (view.version == version) {
+            int index = view.indexOf(fileName, System.currentTimeMillis());
+            if (index == -1) {
+                throw fileNotFound(fileName);
+            }
+            checkBufferSize(fileName, view.getSize(index), buffer);
+            if (readFromView(view, index, buffer)) {
+                return view.getSize(index);
+            }
+        }
+
+        globalLock.lock();
+        try {
+            FEntry targetEntry = findEntry(fileName);
+            checkBufferSize(fileName, targetEntry.getFilesize(), buffer);
+            readContent(targetEntry, buffer);
+            return targetEntry.getFilesize();
+        } finally {
+            globalLock.unlock();
+        }
+    }
+
+    private static void checkBufferSize(String fileName, int fileSize, byte[] buffer) {
+        if (fileSize > buffer.length) {
+            throw new IllegalArgumentException("ERROR: Buffer of " + buffer.length + " bytes is too small for file '"
+                    + fileName + "' (" + fileSize + " bytes).");
+        }
+    }
+
+    //Copies the file at index of view into content without the lock. Returns false if the blocks may have
+    //changed while they were read (the metadata version moved), in which case the caller takes the lock.
+    private boolean readFromView(MetadataView view, int index, byte[] content) throws IOException {
+        int size = view.getSize(index);
+        byte[] inlineData = view.getInlineData(index);
+        if (inlineData != null) {
+            // The view holds its own copy, so nothing can change under us
+            System.arraycopy(inlineData, 0, content, 0, size);
+            view.touch(index);
+            return true;
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            // The read would only close the channel; the locked path reads through the RandomAccessFile
+            return false;
+        }
+
+        // Positional reads leave the file pointer used by the locked paths alone
+        FileChannel channel = readChannel;
+        ByteBuffer scratch = bufferPool.acquire(size);
+        int currentBlock = view.getFirstBlock(index);
+        int readBytes = 0;
+        try {
+            while (currentBlock != -1 && readBytes < size) {
+                int bytesToRead = Math.min(BLOCK_SIZE, size - readBytes);
+                scratch.limit(readBytes + bytesToRead).position(readBytes);
+                long position = (long) currentBlock * BLOCK_SIZE;
+                while (scratch.hasRemaining()) {
+                    int read = channel.read(scratch, position);
+                    if (read < 0) {
+                        return false;
+                    }
+                    position += read;
                 }
+                readBytes += bytesToRead;
+                currentBlock = view.getNextBlock(currentBlock);
             }
+        } catch (ClosedChannelException e) {
+            // Interrupted during the read (by this or another reader), which closed the channel
+            reopenReadChannel(channel);
+            return false;
+        }
+        if (metadataVersion != view.version) {
+            return false;
+        }
+        System.arraycopy(scratch.array(), 0, content, 0, size);
+        view.touch(index);
+        return true;
+    }
 
-            if (targetEntry == null) {
-                throw new Exception("ERROR: this file :'" + fileName + "' does'nt exist");
+    //Replaces a read channel that was closed by an interrupt; readers racing here reopen it only once
+    private synchronized void reopenReadChannel(FileChannel closed) throws IOException {
+        if (readChannel == closed) {
+            readChannel = FileChannel.open(imagePath, StandardOpenOption.READ);
+        }
+    }
+
+    //Largest file a volume can hold, useful for sizing read buffers
+    public int getMaxFileSize() {
+        return getDataBlockCount() * BLOCK_SIZE;
+    }
+
+    //Finds a live file and marks it as just used; expired files the sweeper has not reached yet count as gone
+    private FEntry findEntry(String fileName) throws Exception {
+        long now = System.currentTimeMillis();
+        for (FEntry entry : inodeTable) {
+            if (entry.isInUse() && entry.getFilename().equals(fileName) && !entry.isExpired(now)) {
+                entry.setLastAccess(System.nanoTime());
+                return entry;
             }
+        }
+        throw fileNotFound(fileName);
+    }
 
-            byte[] content = new byte[targetEntry.getFilesize()];
-            short currentBlock = targetEntry.getFirstBlock();
-            int readBytes = 0;
-            int blockIndex = 0;
-            while (currentBlock != -1 && readBytes < targetEntry.getFilesize()) {
-                long position = metadataBlocks * BLOCK_SIZE + (currentBlock - metadataBlocks) * BLOCK_SIZE;
-                disk.seek(position);
+    private static Exception fileNotFound(String fileName) {
+        return new Exception("ERROR: this file :'" + fileName + "' does'nt exist");
+    }
 
-                int bytesToRead = Math.min(BLOCK_SIZE, targetEntry.getFilesize() - readBytes);
-                disk.readFully(content, readBytes, bytesToRead);
+    //Copies the content of targetEntry, from the inode or its block chain, to the start of content
+    private void readContent(FEntry targetEntry, byte[] content) throws IOException {
+        if (targetEntry.isInline()) {
+            // Served from the inode table, no block I/O
+            System.arraycopy(targetEntry.getInlineData(), 0, content, 0, targetEntry.getFilesize());
+            return;
+        }
+        short currentBlock = targetEntry.getFirstBlock();
+        int readBytes = 0;
+        int blockIndex = 0;
+        while (currentBlock != -1 && readBytes < targetEntry.getFilesize()) {
+            long position = metadataBlocks * BLOCK_SIZE + (currentBlock - metadataBlocks) * BLOCK_SIZE;
+            disk.seek(position);
 
-                readBytes += bytesToRead;
+            int bytesToRead = Math.min(BLOCK_SIZE, targetEntry.getFilesize() - readBytes);
+            disk.readFully(content, readBytes, bytesToRead);
 
-                if (blockIndex < fNodeTable.length - 1) {
-                    currentBlock = (short) fNodeTable[currentBlock].getNext();
-                } else {
-                    currentBlock = -1;
-                }
-                blockIndex++;
+            readBytes += bytesToRead;
+
+            if (blockIndex < fNodeTable.length - 1) {
+                currentBlock = (short) fNodeTable[currentBlock].getNext();
+            } else {
+                currentBlock = -1;
             }
+            blockIndex++;
+        }
+    }
 
-            return content;
+    //Applies all mutations under one lock acquisition and one metadata sync.
+    //If any of them fails, none of them take effect.
+    public void applyBatch(List<Mutation> batch) throws Exception {
+        beginTransaction();
+        boolean committed = false;
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                applyInTransaction(batch.get(i), i);
+            }
+            commitTransaction();
+            committed = true;
         } finally {
-            globalLock.unlock();
+            if (!committed) {
+                rollbackTransaction();
+            }
+        }
+    }
+
+    //Locks the volume and remembers its metadata so the transaction can be rolled back.
+    //Must be followed by commitTransaction() or rollbackTransaction() on the same thread.
+    void beginTransaction() {
+        globalLock.lock();
+        inodeSnapshot = new FEntry[MAXFILES];
+        for (int i = 0; i < MAXFILES; i++) {
+            FEntry entry = inodeTable[i];
+            inodeSnapshot[i] = entry.isInUse() ? new FEntry(entry) : new FEntry();
+        }
+        freeBlockSnapshot = freeBlockList.clone();
+        fNodeSnapshot = new FNode[MAXBLOCKS];
+        for (int i = 0; i < MAXBLOCKS; i++) {
+            fNodeSnapshot[i] = new FNode(fNodeTable[i].getBlockIndex());
+            fNodeSnapshot[i].setNext(fNodeTable[i].getNext());
         }
+        pendingRelease = new ArrayList<>();
+        pendingMutations = new ArrayList<>();
     }
 
-    // TODO: Add readFile, deleteFile and other required methods,
+    //Applies one mutation of an open transaction; index is its position in the batch, for the error message
+    void applyInTransaction(Mutation mutation, int index) throws Exception {
+        try {
+            switch (mutation.getType()) {
+                case CREATE:
+                    createFile(mutation.getFileName(), mutation.getTtlMillis());
+                    break;
+                case WRITE:
+                    writeFile(mutation.getFileName(), mutation.getContent(), mutation.getTtlMillis());
+                    break;
+                case DELETE:
+                    deleteFile(mutation.getFileName());
+                    break;
+            }
+        } catch (Exception e) {
+            String reason = e.getMessage() == null ? e.toString() : e.getMessage().replaceFirst("^ERROR: ", "");
+            throw new Exception("ERROR: Batch aborted at operation " + (index + 1) + " (" + mutation.getType() + " "
+                    + mutation.getFileName() + "): " + reason, e);
+        }
+    }
+
+    //Makes the transaction durable with one sync, reports its mutations and unlocks the volume.
+    //If writing fails the transaction stays open so the caller can roll it back.
+    void commitTransaction() throws IOException {
+        prepareCommit();
+        finishCommit();
+    }
+
+    //First half of a commit: writes the transaction's metadata with one sync. The transaction stays open,
+    //so a batch spanning several volumes can still roll every one of them back if another volume fails.
+    //Blocks the transaction freed are only released by finishCommit(), so the old metadata stays valid.
+    void prepareCommit() throws IOException {
+        writeMetadataToDisk();
+        transactionPrepared = true;
+    }
+
+    //Second half of a commit: releases freed blocks, reports the mutations and unlocks the volume. Cannot fail.
+    void finishCommit() {
+        for (int blockIndex : pendingRelease) {
+            queueForReclaim(blockIndex);
+        }
+
+        List<Mutation> committed = pendingMutations;
+        endTransaction();
+        try {
+            for (Mutation mutation : committed) {
+                notifyMutation(mutation.getType(), mutation.getFileName(), mutation.getContent(),
+                        mutation.getTtlMillis());
+            }
+        } finally {
+            // The whole batch becomes visible to lock-free readers at once
+            publishAndUnlock();
+        }
+    }
+
+    //Restores the metadata remembered by beginTransaction() and unlocks the volume
+    void rollbackTransaction() {
+        if (pendingMutations == null) {
+            // Already committed, the lock is released
+            return;
+        }
+        inodeTable = inodeSnapshot;
+        freeBlockList = freeBlockSnapshot;
+        fNodeTable = fNodeSnapshot;
+        if (transactionPrepared) {
+            try {
+                writeMetadataToDisk();
+            } catch (IOException e) {
+                System.err.println("Failed to restore metadata after a rolled back batch: " + e.getMessage());
+            }
+        }
+        endTransaction();
+        // The transaction may have replaced or cancelled deadlines of the restored files
+        for (FEntry entry : inodeTable) {
+            if (entry.isInUse() && entry.getExpiresAt() != 0) {
+                expiryWheel.schedule(entry.getFilename(), entry.getExpiresAt());
+            }
+        }
+        // Restores an even version; the view itself never showed the rolled back changes
+        viewStale = true;
+        publishAndUnlock();
+    }
+
+    private void endTransaction() {
+        transactionPrepared = false;
+        pendingRelease = null;
+        pendingMutations = null;
+        inodeSnapshot = null;
+        freeBlockSnapshot = null;
+        fNodeSnapshot = null;
+    }
 }
@@ -0,0 +1,107 @@
+package ca.concordia.filesystem;
+
+import ca.concordia.filesystem.datastructures.FEntry;
+import ca.concordia.filesystem.datastructures.FNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable copy of a volume's inode table and block chains.
+ * Writers build a new view under the volume lock and publish it through a volatile field,
+ * so LIST and the lookup step of READ run without taking the lock.
+ * version is the (even) metadata version the view was published at.
+ */
+final class MetadataView {
+
+    final long version;
+    private final FEntry[] entries; // The live entries, only used to record accesses for LRU
+    private final String[] names; // null for free slots
+    private final short[] sizes;
+    private final short[] firstBlocks;
+    private final long[] expiresAt;
+    private final byte[][] inlineData; // Copies, since writers reuse the entry's array
+    private final int[] nextBlock;
+
+    MetadataView(long version, FEntry[] inodeTable, FNode[] fNodeTable) {
+        this.version = version;
+        this.entries = inodeTable.clone();
+        this.names = new String[inodeTable.length];
+        this.sizes = new short[inodeTable.length];
+        this.firstBlocks = new short[inodeTable.length];
+        this.expiresAt = new long[inodeTable.length];
+        this.inlineData = new byte[inodeTable.length][];
+        for (int i = 0; i < inodeTable.length; i++) {
+            FEntry entry = inodeTable[i];
+            if (entry.isInUse()) {
+                names[i] = entry.getFilename();
+                sizes[i] = entry.getFilesize();
+                firstBlocks[i] = entry.getFirstBlock();
+                expiresAt[i] = entry.getExpiresAt();
+                if (entry.isInline()) {
+                    inlineData[i] = entry.getInlineData().clone();
+                }
+            }
+        }
+        this.nextBlock = new int[fNodeTable.length];
+        for (int i = 0; i < fNodeTable.length; i++) {
+            nextBlock[i] = fNodeTable[i].getNext();
+        }
+    }
+
+    //Slot of a live file, or -1 if there is none or it has expired
+    int indexOf(String fileName, long now) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null && names[i].equals(fileName) && !isExpired(i, now)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    String[] listFiles(long now) {
+        List<String> fileList = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null && !isExpired(i, now)) {
+                fileList.add(names[i]);
+            }
+        }
+        return fileList.toArray(new String[0]);
+    }
+
+    int getFileCount() {
+        int count = 0;
+        for (String name : names) {
+            if (name != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean isExpired(int index, long now) {
+        return expiresAt[index] != 0 && expiresAt[index] <= now;
+    }
+
+    short getSize(int index) {
+        return sizes[index];
+    }
+
+    short getFirstBlock(int index) {
+        return firstBlocks[index];
+    }
+
+    //Inline content of the file, null if it is stored in blocks
+    byte[] getInlineData(int index) {
+        return inlineData[index];
+    }
+
+    int getNextBlock(int blockIndex) {
+        return nextBlock[blockIndex];
+    }
+
+    //Records a read for LRU eviction; harmless if the entry has been removed since
+    void touch(int index) {
+        entries[index].setLastAccess(System.nanoTime());
+    }
+}
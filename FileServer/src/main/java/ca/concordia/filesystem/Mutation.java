@@ -0,0 +1,70 @@
+package ca.concordia.filesystem;
+
+/**
+ * A single change to the file system: a create, write or delete of one file.
+ */
+public class Mutation {
+
+    public enum Type {
+        CREATE,
+        WRITE,
+        DELETE
+    }
+
+    private final Type type;
+    private final String fileName;
+    private final String content; // Only set for WRITE
+    private final long ttlMillis; // Time to live set by a CREATE or WRITE, 0 for none
+
+    public Mutation(Type type, String fileName, String content) {
+        this(type, fileName, content, 0);
+    }
+
+    public Mutation(Type type, String fileName, String content, long ttlMillis) {
+        this.type = type;
+        this.fileName = fileName;
+        this.content = content;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public static Mutation create(String fileName) {
+        return new Mutation(Type.CREATE, fileName, null);
+    }
+
+    public static Mutation create(String fileName, long ttlMillis) {
+        return new Mutation(Type.CREATE, fileName, null, ttlMillis);
+    }
+
+    public static Mutation write(String fileName, String content) {
+        return new Mutation(Type.WRITE, fileName, content);
+    }
+
+    public static Mutation write(String fileName, String content, long ttlMillis) {
+        return new Mutation(Type.WRITE, fileName, content, ttlMillis);
+    }
+
+    public static Mutation delete(String fileName) {
+        return new Mutation(Type.DELETE, fileName, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Mutation{type=%s, fileName='%s'}", type, fileName);
+    }
+}
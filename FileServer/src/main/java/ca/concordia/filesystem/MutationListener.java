@@ -0,0 +1,10 @@
+package ca.concordia.filesystem;
+
+/**
+ * Notified of every successful mutation, in the order the volume applied them.
+ * Called while the volume lock is held, so implementations must not block for long.
+ */
+public interface MutationListener {
+
+    void onMutation(Mutation mutation);
+}
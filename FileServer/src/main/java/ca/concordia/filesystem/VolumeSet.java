@@ -0,0 +1,177 @@
+package ca.concordia.filesystem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Spreads files across several independent FileSystemManager volumes.
+ * Each volume has its own image file, lock and block allocator, so clients
+ * working on files that hash to different volumes never wait on each other.
+ */
+public class VolumeSet implements AutoCloseable {
+
+    private final FileSystemManager[] volumes;
+    private final String[] imageNames;
+
+    public VolumeSet(String filename, int totalSize, int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("ERROR: Shard count must be at least 1.");
+        }
+
+        this.volumes = new FileSystemManager[shardCount];
+        this.imageNames = new String[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            // A single volume keeps the plain image name so existing setups are unaffected
+            imageNames[i] = shardCount == 1 ? filename : filename + "." + i;
+            volumes[i] = new FileSystemManager(imageNames[i], totalSize);
+        }
+    }
+
+    public int getShardCount() {
+        return volumes.length;
+    }
+
+    //Picks the volume that owns the given filename
+    FileSystemManager volumeFor(String fileName) {
+        return volumes[indexFor(fileName)];
+    }
+
+    int indexFor(String fileName) {
+        if (fileName == null) {
+            // Let volume 0 produce the usual validation error
+            return 0;
+        }
+        return Math.floorMod(fileName.hashCode(), volumes.length);
+    }
+
+    public void createFile(String fileName) throws Exception {
+        volumeFor(fileName).createFile(fileName);
+    }
+
+    public void createFile(String fileName, long ttlMillis) throws Exception {
+        volumeFor(fileName).createFile(fileName, ttlMillis);
+    }
+
+    public void writeFile(String fileName, String content) throws Exception {
+        volumeFor(fileName).writeFile(fileName, content);
+    }
+
+    public void writeFile(String fileName, String content, long ttlMillis) throws Exception {
+        volumeFor(fileName).writeFile(fileName, content, ttlMillis);
+    }
+
+    public byte[] readFile(String fileName) throws Exception {
+        return volumeFor(fileName).readFile(fileName);
+    }
+
+    public int readFile(String fileName, byte[] buffer) throws Exception {
+        return volumeFor(fileName).readFile(fileName, buffer);
+    }
+
+    //Largest file any volume can hold
+    public int getMaxFileSize() {
+        return volumes[0].getMaxFileSize();
+    }
+
+    public void deleteFile(String fileName) throws Exception {
+        volumeFor(fileName).deleteFile(fileName);
+    }
+
+    //Replays a mutation, e.g. one received from a replication primary
+    public void apply(Mutation mutation) throws Exception {
+        switch (mutation.getType()) {
+            case CREATE:
+                createFile(mutation.getFileName(), mutation.getTtlMillis());
+                break;
+            case WRITE:
+                writeFile(mutation.getFileName(), mutation.getContent(), mutation.getTtlMillis());
+                break;
+            case DELETE:
+                deleteFile(mutation.getFileName());
+                break;
+        }
+    }
+
+    //Applies the whole batch or nothing. Every volume the batch touches is locked once,
+    //in volume order so concurrent batches cannot deadlock, and synced once on commit.
+    //A crash between two volumes' metadata writes can still leave them apart; there is no cross-volume log.
+    public void applyBatch(List<Mutation> batch) throws Exception {
+        boolean[] touched = new boolean[volumes.length];
+        for (Mutation mutation : batch) {
+            touched[indexFor(mutation.getFileName())] = true;
+        }
+
+        List<FileSystemManager> open = new ArrayList<>();
+        try {
+            for (int i = 0; i < volumes.length; i++) {
+                if (touched[i]) {
+                    volumes[i].beginTransaction();
+                    open.add(volumes[i]);
+                }
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                volumeFor(batch.get(i).getFileName()).applyInTransaction(batch.get(i), i);
+            }
+            // Every volume writes its metadata before any of them counts as committed, so an I/O error on one
+            // of them still rolls back all of them
+            for (FileSystemManager volume : open) {
+                volume.prepareCommit();
+            }
+            while (!open.isEmpty()) {
+                open.remove(0).finishCommit();
+            }
+        } finally {
+            for (FileSystemManager volume : open) {
+                volume.rollbackTransaction();
+            }
+        }
+    }
+
+    //Lets every volume evict its least recently used files when it runs out of inodes or blocks
+    public void setLruEviction(boolean enabled) {
+        for (FileSystemManager volume : volumes) {
+            volume.setLruEviction(enabled);
+        }
+    }
+
+    //Registers the listener on every volume
+    public void setMutationListener(MutationListener mutationListener) {
+        for (FileSystemManager volume : volumes) {
+            volume.setMutationListener(mutationListener);
+        }
+    }
+
+    //Merges the listings of every volume into one sorted list
+    public String[] listFiles() {
+        List<String> fileList = new ArrayList<>();
+        for (FileSystemManager volume : volumes) {
+            Collections.addAll(fileList, volume.listFiles());
+        }
+        String[] files = fileList.toArray(new String[0]);
+        Arrays.sort(files);
+        return files;
+    }
+
+    //One line per volume with its file count and block usage
+    public String[] getShardStats() {
+        String[] stats = new String[volumes.length];
+        for (int i = 0; i < volumes.length; i++) {
+            FileSystemManager volume = volumes[i];
+            stats[i] = String.format("shard %d (%s): %d files, %d/%d blocks free, %d pending reclaim",
+                    i, imageNames[i], volume.getFileCount(), volume.getFreeBlockCount(), volume.getDataBlockCount(),
+                    volume.getPendingReclaimCount());
+        }
+        return stats;
+    }
+
+    //Closes every volume
+    @Override
+    public void close() throws IOException {
+        for (FileSystemManager volume : volumes) {
+            volume.close();
+        }
+    }
+}
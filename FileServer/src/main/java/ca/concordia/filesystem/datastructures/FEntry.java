@@ -5,6 +5,9 @@ public class FEntry {
     private String filename; // Max 11 characters
     private short filesize;
     private short firstBlock; // -1 if no blocks allocated
+    private byte[] inlineData; // Content of a small file kept in the entry itself, null if it uses blocks
+    private long expiresAt; // Epoch millis after which the file is removed, 0 if it never expires
+    private volatile long lastAccess; // System.nanoTime() of the last create, write or read, for LRU eviction (not persisted); also set by lock-free reads
 
     public FEntry(String filename, short filesize, short firstblock) throws IllegalArgumentException {
         if (filename.length() > 11) {
@@ -15,6 +18,16 @@ public class FEntry {
         this.firstBlock = firstblock;
     }
 
+    // Copy constructor, the inline content is copied too
+    public FEntry(FEntry other) {
+        this.filename = other.filename;
+        this.filesize = other.filesize;
+        this.firstBlock = other.firstBlock;
+        this.inlineData = other.inlineData == null ? null : other.inlineData.clone();
+        this.expiresAt = other.expiresAt;
+        this.lastAccess = other.lastAccess;
+    }
+
     // Default constructor creates an unused entry
     public FEntry() {
         this.filename = "";
@@ -52,6 +65,39 @@ public class FEntry {
         this.firstBlock = firstBlock;
     }
 
+    public byte[] getInlineData() {
+        return inlineData;
+    }
+
+    // The first filesize bytes of inlineData are the content; null moves the file back to blocks
+    public void setInlineData(byte[] inlineData) {
+        this.inlineData = inlineData;
+    }
+
+    public boolean isInline() {
+        return inlineData != null;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public boolean isExpired(long now) {
+        return expiresAt != 0 && expiresAt <= now;
+    }
+
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    public void setLastAccess(long lastAccess) {
+        this.lastAccess = lastAccess;
+    }
+
     public boolean isInUse() {
         return filename != null && !filename.isEmpty();
     }
@@ -64,11 +110,14 @@ public class FEntry {
         this.filename = "";
         this.filesize = 0;
         this.firstBlock = -1;
+        this.inlineData = null;
+        this.expiresAt = 0;
+        this.lastAccess = 0;
     }
 
     @Override
     public String toString() {
-        return String.format("FEntry{filename='%s', filesize=%d, firstBlock=%d, inUse=%b}",
-                filename, filesize, firstBlock, isInUse());
+        return String.format("FEntry{filename='%s', filesize=%d, firstBlock=%d, inline=%b, expiresAt=%d, inUse=%b}",
+                filename, filesize, firstBlock, isInline(), expiresAt, isInUse());
     }
 }
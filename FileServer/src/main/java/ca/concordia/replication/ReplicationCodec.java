@@ -0,0 +1,83 @@
+package ca.concordia.replication;
+
+import ca.concordia.filesystem.Mutation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+//Wire format shared by the primary and the standby.
+//A frame is the long id of the primary, an int length and a deflated batch: int count, then per record
+//long seq, byte type, UTF filename, long ttlMillis, boolean hasContent and an optional UTF content.
+//The standby answers every frame with the long sequence number it has applied up to.
+final class ReplicationCodec {
+
+    static final int MAX_BATCH_SIZE = 256;
+    // A record with the longest UTF filename and content, and the deflated frame of a full batch of them
+    // (deflate adds a little to data it cannot compress)
+    private static final int MAX_RECORD_BYTES = 8 + 1 + (2 + 65535) + 8 + 1 + (2 + 65535);
+    private static final int MAX_BODY_BYTES = 4 + MAX_BATCH_SIZE * MAX_RECORD_BYTES;
+    private static final int MAX_FRAME_BYTES = MAX_BODY_BYTES + (MAX_BODY_BYTES >> 12) + (MAX_BODY_BYTES >> 14) + 13;
+
+    private ReplicationCodec() {
+    }
+
+    static void writeBatch(DataOutputStream out, long primaryId, List<ReplicationRecord> batch) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DataOutputStream data = new DataOutputStream(new DeflaterOutputStream(buffer))) {
+            data.writeInt(batch.size());
+            for (ReplicationRecord record : batch) {
+                Mutation mutation = record.getMutation();
+                data.writeLong(record.getSeq());
+                data.writeByte(mutation.getType().ordinal());
+                data.writeUTF(mutation.getFileName());
+                data.writeLong(mutation.getTtlMillis());
+                data.writeBoolean(mutation.getContent() != null);
+                if (mutation.getContent() != null) {
+                    data.writeUTF(mutation.getContent());
+                }
+            }
+        }
+        out.writeLong(primaryId);
+        out.writeInt(buffer.size());
+        buffer.writeTo(out);
+        out.flush();
+    }
+
+    //Reads the frame body; the caller has already read the primary id.
+    //Anyone can connect to the standby port, so a malformed frame is an IOException, never a runtime exception.
+    static List<ReplicationRecord> readBatch(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Invalid replication frame length " + length + ".");
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        try (DataInputStream data = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(frame)))) {
+            int count = data.readInt();
+            if (count < 0 || count > MAX_BATCH_SIZE) {
+                throw new IOException("Invalid replication batch size " + count + ".");
+            }
+            List<ReplicationRecord> batch = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long seq = data.readLong();
+                int typeOrdinal = data.readByte();
+                if (typeOrdinal < 0 || typeOrdinal >= Mutation.Type.values().length) {
+                    throw new IOException("Invalid mutation type " + typeOrdinal + ".");
+                }
+                Mutation.Type type = Mutation.Type.values()[typeOrdinal];
+                String fileName = data.readUTF();
+                long ttlMillis = data.readLong();
+                String content = data.readBoolean() ? data.readUTF() : null;
+                batch.add(new ReplicationRecord(seq, new Mutation(type, fileName, content, ttlMillis)));
+            }
+            return batch;
+        }
+    }
+}
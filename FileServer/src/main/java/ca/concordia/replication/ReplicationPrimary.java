@@ -0,0 +1,201 @@
+package ca.concordia.replication;
+
+import ca.concordia.filesystem.Mutation;
+import ca.concordia.filesystem.MutationListener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Streams the mutation log of this server to a standby.
+ * Mutations are queued by the file system and shipped by a background thread
+ * in compressed batches, so the WRITE path never waits on the network in ASYNC mode.
+ * The queue is bounded and is filled under the volume lock, so it is never waited on:
+ * once maxLag records are unacknowledged the standby is marked out of sync and dropped,
+ * and the primary carries on alone. A dropped standby, like one started after the primary
+ * already had data, has to be reseeded from a copy of the primary's image.
+ */
+public class ReplicationPrimary implements MutationListener {
+
+    public enum AckPolicy {
+        SYNC, // Client replies wait for the standby to acknowledge the mutation
+        ASYNC // Client replies are sent as soon as the mutation is applied locally
+    }
+
+    private static final long RECONNECT_DELAY_MS = 500;
+    private static final long SYNC_ACK_TIMEOUT_MS = 5000;
+
+    private final String standbyHost;
+    private final int standbyPort;
+    private final AckPolicy ackPolicy;
+    private final BlockingQueue<ReplicationRecord> queue;
+    private final ThreadLocal<Long> lastSeqOfThread = ThreadLocal.withInitial(() -> 0L);
+    private final Object ackMonitor = new Object();
+
+    // Lets the standby tell a restarted primary, whose sequence numbers start over, from a reconnect
+    private final long primaryId = System.nanoTime();
+
+    private volatile long lastSeq = 0;
+    private volatile long ackedSeq = 0;
+    private volatile boolean running = false;
+    private volatile boolean outOfSync = false;
+    private Thread senderThread;
+    private volatile Socket socket; // The sender's connection, closed by stop() to end a blocked ack read
+
+    public ReplicationPrimary(String standbyHost, int standbyPort, AckPolicy ackPolicy, int maxLag) {
+        if (maxLag < 1) {
+            throw new IllegalArgumentException("ERROR: Replication lag bound must be at least 1.");
+        }
+        this.standbyHost = standbyHost;
+        this.standbyPort = standbyPort;
+        this.ackPolicy = ackPolicy;
+        this.queue = new ArrayBlockingQueue<>(maxLag);
+    }
+
+    public void start() {
+        running = true;
+        senderThread = new Thread(this::sendLoop, "replication-sender");
+        senderThread.setDaemon(true);
+        senderThread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (senderThread != null) {
+            senderThread.interrupt();
+        }
+        // An interrupt does not end a blocking socket read
+        closeSocket();
+    }
+
+    private void closeSocket() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    public AckPolicy getAckPolicy() {
+        return ackPolicy;
+    }
+
+    //Number of mutations applied here that the standby has not acknowledged yet
+    public long getReplicationLag() {
+        return Math.max(0, lastSeq - ackedSeq);
+    }
+
+    //False once the standby fell more than maxLag mutations behind and was dropped
+    public boolean isInSync() {
+        return !outOfSync;
+    }
+
+    @Override
+    public void onMutation(Mutation mutation) {
+        // Called with the volume lock held, so it must never wait on the standby.
+        // Sequence numbers are handed out and queued together so the log order matches the apply order.
+        synchronized (this) {
+            long seq = lastSeq + 1;
+            lastSeq = seq;
+            lastSeqOfThread.set(seq);
+            if (outOfSync) {
+                return;
+            }
+            if (!queue.offer(new ReplicationRecord(seq, mutation))) {
+                // The log now has a gap, so the standby can no longer be brought up to date from it
+                outOfSync = true;
+                queue.clear();
+                System.err.println("Standby " + standbyHost + ":" + standbyPort
+                        + " fell too far behind; replication stopped until it is reseeded.");
+                synchronized (ackMonitor) {
+                    ackMonitor.notifyAll();
+                }
+            }
+        }
+    }
+
+    //In SYNC mode, waits until the standby has acknowledged the last mutation made by this thread.
+    //Returns false if the acknowledgement did not arrive in time.
+    public boolean awaitAck() throws InterruptedException {
+        if (ackPolicy != AckPolicy.SYNC) {
+            return true;
+        }
+        long seq = lastSeqOfThread.get();
+        long deadline = System.currentTimeMillis() + SYNC_ACK_TIMEOUT_MS;
+        synchronized (ackMonitor) {
+            while (ackedSeq < seq) {
+                if (outOfSync) {
+                    return false;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                ackMonitor.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    private void sendLoop() {
+        List<ReplicationRecord> batch = new ArrayList<>();
+        while (running) {
+            try (Socket connection = new Socket(standbyHost, standbyPort);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()))) {
+                socket = connection;
+                if (!running) {
+                    // stop() ran before the socket was published
+                    return;
+                }
+                System.out.println("Replicating to standby " + standbyHost + ":" + standbyPort);
+                while (running) {
+                    if (outOfSync) {
+                        // Nothing more will be sent; the thread parks in queue.take() below
+                        batch.clear();
+                    }
+                    // A batch that failed to send is kept and resent after reconnecting
+                    if (batch.isEmpty()) {
+                        batch.add(queue.take());
+                        queue.drainTo(batch, ReplicationCodec.MAX_BATCH_SIZE - 1);
+                    }
+                    ReplicationCodec.writeBatch(out, primaryId, batch);
+                    acknowledge(in.readLong());
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                if (!running) {
+                    return;
+                }
+                System.err.println("Replication to " + standbyHost + ":" + standbyPort + " failed: " + e.getMessage());
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void acknowledge(long seq) {
+        synchronized (ackMonitor) {
+            if (seq > ackedSeq) {
+                ackedSeq = seq;
+            }
+            ackMonitor.notifyAll();
+        }
+    }
+}
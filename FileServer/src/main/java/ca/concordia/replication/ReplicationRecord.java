@@ -0,0 +1,23 @@
+package ca.concordia.replication;
+
+import ca.concordia.filesystem.Mutation;
+
+//A mutation tagged with its position in the primary's replication log
+class ReplicationRecord {
+
+    private final long seq;
+    private final Mutation mutation;
+
+    ReplicationRecord(long seq, Mutation mutation) {
+        this.seq = seq;
+        this.mutation = mutation;
+    }
+
+    long getSeq() {
+        return seq;
+    }
+
+    Mutation getMutation() {
+        return mutation;
+    }
+}
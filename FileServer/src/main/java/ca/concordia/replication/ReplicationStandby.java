@@ -0,0 +1,95 @@
+package ca.concordia.replication;
+
+import ca.concordia.filesystem.VolumeSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * Receives the mutation log of a primary and applies it, in order, to the local volumes.
+ * Every batch is acknowledged with the sequence number applied so far; records the
+ * standby has already applied (a batch resent after a reconnect) are skipped.
+ */
+public class ReplicationStandby {
+
+    private final VolumeSet fsManager;
+    private final ServerSocket serverSocket;
+    private long primaryId = 0;
+    private volatile long appliedSeq = 0;
+    private Thread receiverThread;
+
+    public ReplicationStandby(int port, VolumeSet fsManager) throws IOException {
+        this.fsManager = fsManager;
+        // Bind right away so a primary can connect as soon as the constructor returns
+        this.serverSocket = new ServerSocket(port);
+    }
+
+    public void start() {
+        receiverThread = new Thread(this::acceptLoop, "replication-receiver");
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+        System.out.println("Standby listening for replication on port " + serverSocket.getLocalPort());
+    }
+
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    public long getAppliedSeq() {
+        return appliedSeq;
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            // Only one primary streams at a time, so connections are served one after another
+            try (Socket socket = serverSocket.accept();
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+                System.out.println("Primary connected: " + socket);
+                while (true) {
+                    long id = in.readLong();
+                    if (id != primaryId) {
+                        // A new primary process numbers its log from 1 again
+                        primaryId = id;
+                        appliedSeq = 0;
+                    }
+                    apply(ReplicationCodec.readBatch(in));
+                    out.writeLong(appliedSeq);
+                    out.flush();
+                }
+            } catch (EOFException e) {
+                System.out.println("Primary disconnected.");
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Replication stream failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void apply(List<ReplicationRecord> batch) {
+        for (ReplicationRecord record : batch) {
+            if (record.getSeq() <= appliedSeq) {
+                continue;
+            }
+            try {
+                fsManager.apply(record.getMutation());
+            } catch (Exception e) {
+                // The primary only logs mutations that succeeded there; report the divergence and move on
+                System.err.println("Failed to apply " + record.getMutation() + ": " + e.getMessage());
+            }
+            appliedSeq = record.getSeq();
+        }
+    }
+}
@@ -1,105 +1,497 @@
 package ca.concordia.server;
 
 import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.Mutation;
+import ca.concordia.filesystem.VolumeSet;
+import ca.concordia.replication.ReplicationPrimary;
+import ca.concordia.replication.ReplicationStandby;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class FileServer {
 
-    private FileSystemManager fsManager;
+    private static final int MAX_BATCH_SIZE = 4096;
+    static final long ADMISSION_WAIT_MS = 50; // How long a request may wait for an in-flight slot
+    static final long BUSY_RETRY_AFTER_MS = 100;
+    private static final String TTL_PREFIX = "ttl="; // Optional CREATE/WRITE argument, e.g. CREATE ttl=60 a.txt
+
+    private VolumeSet fsManager;
     private int port;
+    private volatile ThreadPoolExecutor clientPool;
+    private volatile ServerSocket serverSocket;
+    private volatile boolean stopped = false;
+    private final Set<Socket> sessions = ConcurrentHashMap.newKeySet(); // Open client connections, closed by stop()
+    private int maxSessions = 256;
+    private int maxQueuedSessions = 64;
+    private Semaphore inFlightRequests = new Semaphore(64, true);
+    private RateLimiter rateLimiter; // Null when clients are not rate limited
+    private ReplicationPrimary replicationPrimary;
+    private ReplicationStandby replicationStandby;
 
     public FileServer(int port, String fileSystemName, int totalSize) {
-        // Initialize the FileSystemManager
-        FileSystemManager fsManager = new FileSystemManager(fileSystemName,
-                10 * 128);
-        this.fsManager = fsManager;
+        this(port, fileSystemName, totalSize, 1);
+    }
+
+    public FileServer(int port, String fileSystemName, int totalSize, int shardCount) {
+        // Initialize the volume set, one FileSystemManager per shard
+        this.fsManager = new VolumeSet(fileSystemName, totalSize, shardCount);
         this.port = port;
     }
 
+    //Streams every mutation to the standby listening on standbyHost:standbyPort
+    public void enableReplication(String standbyHost, int standbyPort, ReplicationPrimary.AckPolicy ackPolicy,
+            int maxLag) {
+        replicationPrimary = new ReplicationPrimary(standbyHost, standbyPort, ackPolicy, maxLag);
+        fsManager.setMutationListener(replicationPrimary);
+        replicationPrimary.start();
+    }
+
+    //Turns this server into a read-only standby fed by a primary on the given replication port
+    public void startStandby(int replicationPort) throws IOException {
+        replicationStandby = new ReplicationStandby(replicationPort, fsManager);
+        replicationStandby.start();
+    }
+
+    //Bounds the work the server accepts: sessions served at once, sessions waiting for a worker,
+    //and requests executing at once across all sessions. Must be called before start().
+    public void configureAdmission(int maxSessions, int maxQueuedSessions, int maxInFlightRequests) {
+        this.maxSessions = maxSessions;
+        this.maxQueuedSessions = maxQueuedSessions;
+        this.inFlightRequests = new Semaphore(maxInFlightRequests, true);
+    }
+
+    //Limits every client address to requestsPerSecond, with bursts of up to burstSize requests
+    public void setRateLimit(double requestsPerSecond, int burstSize) {
+        this.rateLimiter = new RateLimiter(requestsPerSecond, burstSize);
+    }
+
+    //Evicts least recently used files instead of failing a create or write when a volume is full
+    public void setLruEviction(boolean enabled) {
+        fsManager.setLruEviction(enabled);
+    }
+
     public void start() {
-        try (ServerSocket serverSocket = new ServerSocket(12345)) {
-            System.out.println("Server started. Listening on port 12345...");
+        clientPool = new ThreadPoolExecutor(maxSessions, maxSessions, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxQueuedSessions));
+        clientPool.allowCoreThreadTimeOut(true);
+        try (ServerSocket listener = new ServerSocket(port)) {
+            serverSocket = listener;
+            System.out.println("Server started. Listening on port " + port + "...");
 
-            while (true) {
+            while (!stopped) {
                 Socket clientSocket = serverSocket.accept();
                 System.out.println("Handling client: " + clientSocket);
-                try (
-                        BufferedReader reader = new BufferedReader(
-                                new InputStreamReader(clientSocket.getInputStream()));
-                        PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true)) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        System.out.println("Received from client: " + line);
-                        String[] parts = line.split(" ");
-                        String command = parts[0].toUpperCase();
-
-                        switch (command) {
-                            case "CREATE":
-                                try {
-                                    if (parts.length < 2) {
+                // Each client gets its own thread so sessions on different shards run in parallel
+                try {
+                    clientPool.execute(() -> handleClient(clientSocket));
+                } catch (RejectedExecutionException e) {
+                    // Every worker is busy and the waiting queue is full: shed the connection right away
+                    rejectClient(clientSocket);
+                }
+            }
+        } catch (Exception e) {
+            if (!stopped) {
+                e.printStackTrace();
+                System.err.println("Could not start server on port " + port);
+            }
+        } finally {
+            clientPool.shutdownNow();
+        }
+    }
+
+    //Stops accepting clients, disconnects the open sessions, stops replication and closes the volumes
+    public void stop() {
+        stopped = true;
+        closeQuietly(serverSocket);
+        for (Socket session : sessions) {
+            closeQuietly(session);
+        }
+        ThreadPoolExecutor pool = clientPool;
+        if (pool != null) {
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (replicationPrimary != null) {
+            replicationPrimary.stop();
+        }
+        if (replicationStandby != null) {
+            replicationStandby.stop();
+        }
+        try {
+            fsManager.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close the file system: " + e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private void rejectClient(Socket clientSocket) {
+        try (PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true)) {
+            writer.println("BUSY: retry-after " + BUSY_RETRY_AFTER_MS + "ms");
+        } catch (IOException e) {
+            // Ignore
+        } finally {
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    //Admits one request: the client's rate limit first, then a slot among the requests in flight.
+    //Replies BUSY and returns false if the request is shed; on true the caller must release the slot.
+    private boolean admit(Socket clientSocket, PrintWriter writer) throws InterruptedException {
+        long retryAfter = rateLimiter == null ? 0 : rateLimiter.tryAcquire(clientSocket.getInetAddress());
+        if (retryAfter > 0) {
+            writer.println("BUSY: retry-after " + retryAfter + "ms");
+            return false;
+        }
+        if (!inFlightRequests.tryAcquire(ADMISSION_WAIT_MS, TimeUnit.MILLISECONDS)) {
+            writer.println("BUSY: retry-after " + BUSY_RETRY_AFTER_MS + "ms");
+            return false;
+        }
+        return true;
+    }
+
+    //In SYNC replication mode, holds the reply back until the standby has acknowledged the mutation
+    private String replicated(String reply) throws InterruptedException {
+        if (replicationPrimary != null && !replicationPrimary.awaitAck()) {
+            return "ERROR: Change applied but not acknowledged by the standby in time.";
+        }
+        return reply;
+    }
+
+    //Turns a CREATE, WRITE or DELETE line into a mutation for a batch
+    private Mutation parseMutation(String command, String[] parts) {
+        long ttlMillis;
+        switch (command) {
+            case "CREATE":
+                ttlMillis = parseTtl(parts);
+                parts = stripTtl(parts);
+                if (parts.length < 2) {
+                    throw new IllegalArgumentException("ERROR: CREATE command requires a filename.");
+                }
+                return Mutation.create(parts[1], ttlMillis);
+            case "WRITE":
+                ttlMillis = parseTtl(parts);
+                parts = stripTtl(parts);
+                if (parts.length < 3) {
+                    throw new IllegalArgumentException("ERROR: WRITE command requires a filename and content.");
+                }
+                return Mutation.write(parts[1], joinContent(parts), ttlMillis);
+            case "DELETE":
+                if (parts.length < 2) {
+                    throw new IllegalArgumentException("ERROR: DELETE command requires a filename.");
+                }
+                return Mutation.delete(parts[1]);
+            default:
+                throw new IllegalArgumentException("ERROR: Only CREATE, WRITE and DELETE can be used in a batch.");
+        }
+    }
+
+    //CREATE and WRITE take an optional "ttl=<seconds>" before the filename; returns it in millis, 0 if absent.
+    //Filenames cannot contain '=', so the argument cannot be mistaken for one.
+    private long parseTtl(String[] parts) {
+        if (parts.length < 2 || !parts[1].startsWith(TTL_PREFIX)) {
+            return 0;
+        }
+        try {
+            long seconds = Long.parseLong(parts[1].substring(TTL_PREFIX.length()));
+            if (seconds > 0 && seconds <= FileSystemManager.MAX_TTL_MILLIS / 1000) {
+                return seconds * 1000;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("ERROR: TTL must be a whole number of seconds between 1 and "
+                + FileSystemManager.MAX_TTL_MILLIS / 1000 + ".");
+    }
+
+    //Removes the "ttl=<seconds>" argument, if there is one, so the filename is parts[1] again
+    private String[] stripTtl(String[] parts) {
+        if (parts.length < 2 || !parts[1].startsWith(TTL_PREFIX)) {
+            return parts;
+        }
+        String[] stripped = new String[parts.length - 1];
+        stripped[0] = parts[0];
+        System.arraycopy(parts, 2, stripped, 1, parts.length - 2);
+        return stripped;
+    }
+
+    // Join all parts after the filename as content (in case content has spaces)
+    private String joinContent(String[] parts) {
+        StringBuilder contentBuilder = new StringBuilder();
+        for (int i = 2; i < parts.length; i++) {
+            if (i > 2) {
+                contentBuilder.append(" ");
+            }
+            contentBuilder.append(parts[i]);
+        }
+        return contentBuilder.toString();
+    }
+
+    //Applies a queued batch and builds its single reply
+    private String commitBatch(List<Mutation> batch, String batchError) throws InterruptedException {
+        if (batchError != null) {
+            return "ERROR: Batch discarded. " + batchError.replaceFirst("^ERROR: ", "");
+        }
+        if (replicationStandby != null) {
+            return "ERROR: Server is a read-only standby.";
+        }
+        try {
+            fsManager.applyBatch(batch);
+            return replicated("SUCCESS: Batch of " + batch.size() + " operation(s) committed.");
+        } catch (Exception e) {
+            return e.getMessage();
+        }
+    }
+
+    private void handleClient(Socket clientSocket) {
+        sessions.add(clientSocket);
+        if (stopped) {
+            // stop() may have closed the sessions just before this one was added
+            closeQuietly(clientSocket);
+        }
+        try (
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(clientSocket.getInputStream()));
+                PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true)) {
+            String line;
+            // Open batch: mutations are queued without a reply until COMMIT, or until batchRemaining
+            // reaches zero for a BATCH n envelope
+            List<Mutation> batch = null;
+            String batchError = null;
+            int batchRemaining = -1;
+            // Reused by every READ of this session
+            byte[] readBuffer = new byte[fsManager.getMaxFileSize()];
+            while ((line = reader.readLine()) != null) {
+                System.out.println("Received from client: " + line);
+                String[] parts = line.split(" ");
+                String command = parts[0].toUpperCase();
+
+                if (batch != null && !command.equals("COMMIT") && !command.equals("ABORT")
+                        && !command.equals("QUIT")) {
+                    if (batchError == null) {
+                        try {
+                            if (batch.size() >= MAX_BATCH_SIZE) {
+                                throw new IllegalStateException(
+                                        "ERROR: Batch exceeds " + MAX_BATCH_SIZE + " operations.");
+                            }
+                            batch.add(parseMutation(command, parts));
+                        } catch (IllegalArgumentException | IllegalStateException e) {
+                            // Reported once, when the batch is committed
+                            batchError = e.getMessage();
+                        }
+                    }
+                    if (batchRemaining > 0 && --batchRemaining == 0) {
+                        // Admitted as a whole; if shed, the BUSY is the batch's only reply and nothing in it ran
+                        if (admit(clientSocket, writer)) {
+                            try {
+                                writer.println(commitBatch(batch, batchError));
+                            } finally {
+                                inFlightRequests.release();
+                            }
+                        }
+                        batch = null;
+                        batchError = null;
+                    }
+                    continue;
+                }
+
+                // BEGIN and BATCH only open a batch, which is admitted when it commits. Shedding them would
+                // run the lines that follow one by one instead of as a batch.
+                boolean admitted = !command.equals("BEGIN") && !command.equals("BATCH");
+                if (admitted && !admit(clientSocket, writer)) {
+                    if (command.equals("COMMIT") && batch != null) {
+                        // Shed as a whole, like a BATCH n envelope: the client resends the batch after retry-after
+                        batch = null;
+                        batchError = null;
+                    }
+                    continue;
+                }
+
+                try {
+                    switch (command) {
+                        case "CREATE":
+                            try {
+                                if (replicationStandby != null) {
+                                    writer.println("ERROR: Server is a read-only standby.");
+                                } else {
+                                    long ttlMillis = parseTtl(parts);
+                                    String[] args = stripTtl(parts);
+                                    if (args.length < 2) {
                                         writer.println("ERROR: CREATE command requires a filename.");
                                     } else {
-                                        fsManager.createFile(parts[1]);
-                                        writer.println("SUCCESS: File '" + parts[1] + "' created.");
+                                        fsManager.createFile(args[1], ttlMillis);
+                                        writer.println(replicated("SUCCESS: File '" + args[1] + "' created."));
                                     }
-                                } catch (IllegalArgumentException | IllegalStateException e) {
-                                    writer.println(e.getMessage());
-                                } catch (Exception e) {
-                                    writer.println("ERROR: Failed to create file: " + e.getMessage());
                                 }
-                                writer.flush();
-                                break;
-                            case "WRITE":
-                                try {
-                                    if (parts.length < 3) {
+                            } catch (IllegalArgumentException | IllegalStateException e) {
+                                writer.println(e.getMessage());
+                            } catch (Exception e) {
+                                writer.println("ERROR: Failed to create file: " + e.getMessage());
+                            }
+                            writer.flush();
+                            break;
+                        case "WRITE":
+                            try {
+                                if (replicationStandby != null) {
+                                    writer.println("ERROR: Server is a read-only standby.");
+                                } else {
+                                    long ttlMillis = parseTtl(parts);
+                                    String[] args = stripTtl(parts);
+                                    if (args.length < 3) {
                                         writer.println("ERROR: WRITE command requires a filename and content.");
                                     } else {
-                                        // Join all parts after the filename as content (in case content has spaces)
-                                        StringBuilder contentBuilder = new StringBuilder();
-                                        for (int i = 2; i < parts.length; i++) {
-                                            if (i > 2) {
-                                                contentBuilder.append(" ");
-                                            }
-                                            contentBuilder.append(parts[i]);
-                                        }
-                                        String content = contentBuilder.toString();
-                                        fsManager.writeFile(parts[1], content);
-                                        writer.println("SUCCESS: Content written to file '" + parts[1] + "'.");
+                                        String content = joinContent(args);
+                                        fsManager.writeFile(args[1], content, ttlMillis);
+                                        writer.println(replicated("SUCCESS: Content written to file '" + args[1] + "'."));
                                     }
-                                } catch (IllegalArgumentException | IllegalStateException e) {
-                                    writer.println(e.getMessage());
-                                } catch (Exception e) {
-                                    writer.println("ERROR: Failed to write file: " + e.getMessage());
                                 }
-                                writer.flush();
-                                break;
-                            // TODO: Implement other commands READ, WRITE, DELETE, LIST
-                            case "QUIT":
-                                writer.println("SUCCESS: Disconnecting.");
-                                return;
-                            default:
-                                writer.println("ERROR: Unknown command.");
-                                break;
-                        }
+                            } catch (IllegalArgumentException | IllegalStateException e) {
+                                writer.println(e.getMessage());
+                            } catch (Exception e) {
+                                writer.println("ERROR: Failed to write file: " + e.getMessage());
+                            }
+                            writer.flush();
+                            break;
+                        case "READ":
+                            try {
+                                if (parts.length < 2) {
+                                    writer.println("ERROR: READ command requires a filename.");
+                                } else {
+                                    int size = fsManager.readFile(parts[1], readBuffer);
+                                    writer.println("SUCCESS: " + new String(readBuffer, 0, size));
+                                }
+                            } catch (Exception e) {
+                                writer.println(e.getMessage());
+                            }
+                            writer.flush();
+                            break;
+                        case "DELETE":
+                            try {
+                                if (replicationStandby != null) {
+                                    writer.println("ERROR: Server is a read-only standby.");
+                                } else if (parts.length < 2) {
+                                    writer.println("ERROR: DELETE command requires a filename.");
+                                } else {
+                                    fsManager.deleteFile(parts[1]);
+                                    writer.println(replicated("SUCCESS: File '" + parts[1] + "' deleted."));
+                                }
+                            } catch (Exception e) {
+                                writer.println(e.getMessage());
+                            }
+                            writer.flush();
+                            break;
+                        case "LIST":
+                            String[] files = fsManager.listFiles();
+                            if (files.length == 0) {
+                                writer.println("SUCCESS: No files.");
+                            } else {
+                                writer.println("SUCCESS: " + String.join(", ", files));
+                            }
+                            writer.flush();
+                            break;
+                        case "STATS":
+                            String stats = String.join("; ", fsManager.getShardStats());
+                            if (replicationPrimary != null) {
+                                stats += "; replication lag " + replicationPrimary.getReplicationLag();
+                                if (!replicationPrimary.isInSync()) {
+                                    stats += " (standby out of sync)";
+                                }
+                            }
+                            writer.println("SUCCESS: " + stats);
+                            writer.flush();
+                            break;
+                        case "BEGIN":
+                            // No reply, so a whole batch costs a single round trip
+                            batch = new ArrayList<>();
+                            batchRemaining = -1;
+                            break;
+                        case "BATCH":
+                            try {
+                                batchRemaining = Integer.parseInt(parts.length < 2 ? "" : parts[1]);
+                                if (batchRemaining < 1) {
+                                    throw new NumberFormatException();
+                                }
+                                batch = new ArrayList<>();
+                            } catch (NumberFormatException e) {
+                                batchRemaining = -1;
+                                writer.println("ERROR: BATCH command requires a positive operation count.");
+                            }
+                            break;
+                        case "COMMIT":
+                            if (batch == null) {
+                                writer.println("ERROR: No batch in progress.");
+                            } else {
+                                writer.println(commitBatch(batch, batchError));
+                                batch = null;
+                                batchError = null;
+                            }
+                            break;
+                        case "ABORT":
+                            if (batch == null) {
+                                writer.println("ERROR: No batch in progress.");
+                            } else {
+                                writer.println("SUCCESS: Batch of " + batch.size() + " operation(s) discarded.");
+                                batch = null;
+                                batchError = null;
+                            }
+                            break;
+                        case "QUIT":
+                            writer.println("SUCCESS: Disconnecting.");
+                            return;
+                        default:
+                            writer.println("ERROR: Unknown command.");
+                            break;
                     }
-                } catch (Exception e) {
-                    e.printStackTrace();
                 } finally {
-                    try {
-                        clientSocket.close();
-                    } catch (Exception e) {
-                        // Ignore
+                    if (admitted) {
+                        inFlightRequests.release();
                     }
                 }
             }
         } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Could not start server on port " + port);
+            if (!stopped) {
+                e.printStackTrace();
+            }
+        } finally {
+            sessions.remove(clientSocket);
+            try {
+                clientSocket.close();
+            } catch (Exception e) {
+                // Ignore
+            }
         }
     }
 
@@ -0,0 +1,61 @@
+package ca.concordia.server;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Token-bucket rate limit per client address.
+ * Each address may burst up to burstSize requests and is then refilled at
+ * requestsPerSecond; a request that finds the bucket empty is told how long to wait.
+ */
+public class RateLimiter {
+
+    private static final int MAX_TRACKED_CLIENTS = 10000;
+    private static final long IDLE_BUCKET_NANOS = 60_000_000_000L;
+
+    private final double requestsPerSecond;
+    private final double burstSize;
+    private final ConcurrentHashMap<InetAddress, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public RateLimiter(double requestsPerSecond, int burstSize) {
+        if (requestsPerSecond <= 0 || burstSize < 1) {
+            throw new IllegalArgumentException("ERROR: Rate limit and burst size must be positive.");
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        this.burstSize = burstSize;
+    }
+
+    //Takes one token for the client. Returns 0 if the request may proceed,
+    //otherwise the number of milliseconds until a token will be available.
+    public long tryAcquire(InetAddress client) {
+        if (buckets.size() > MAX_TRACKED_CLIENTS) {
+            evictIdleBuckets();
+        }
+        Bucket bucket = buckets.computeIfAbsent(client, c -> new Bucket(burstSize));
+        synchronized (bucket) {
+            long now = System.nanoTime();
+            bucket.tokens = Math.min(burstSize, bucket.tokens + (now - bucket.lastRefill) / 1e9 * requestsPerSecond);
+            bucket.lastRefill = now;
+            if (bucket.tokens >= 1) {
+                bucket.tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - bucket.tokens) / requestsPerSecond * 1000));
+        }
+    }
+
+    //Forgets clients that have not sent anything for a while; their bucket would be full anyway
+    private void evictIdleBuckets() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> now - bucket.lastRefill > IDLE_BUCKET_NANOS);
+    }
+
+    private static class Bucket {
+        private double tokens;
+        private volatile long lastRefill = System.nanoTime();
+
+        Bucket(double tokens) {
+            this.tokens = tokens;
+        }
+    }
+}
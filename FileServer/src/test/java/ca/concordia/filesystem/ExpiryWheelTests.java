@@ -0,0 +1,58 @@
+package ca.concordia.filesystem;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExpiryWheelTests {
+
+    @Test
+    public void testDueDeadlinesAreReturnedOnce() {
+        ExpiryWheel wheel = new ExpiryWheel(8, 100, 0);
+        wheel.schedule("a", 250);
+        wheel.schedule("b", 5000);
+
+        List<ExpiryWheel.Deadline> due = new ArrayList<>();
+        wheel.advance(200, due);
+        assertTrue(due.isEmpty());
+
+        wheel.advance(300, due);
+        assertEquals(1, due.size());
+        assertEquals("a", due.get(0).fileName);
+
+        due.clear();
+        wheel.advance(400, due);
+        assertTrue(due.isEmpty());
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void testReschedulingReplacesTheOldDeadline() {
+        ExpiryWheel wheel = new ExpiryWheel(8, 100, 0);
+        for (int i = 1; i <= 1000; i++) {
+            wheel.schedule("hot", 100000 + i);
+        }
+        assertEquals(1, wheel.size());
+
+        List<ExpiryWheel.Deadline> due = new ArrayList<>();
+        wheel.advance(200000, due);
+        assertEquals(1, due.size());
+        assertEquals(101000, due.get(0).expiresAt);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testCancelledDeadlinesNeverComeDue() {
+        ExpiryWheel wheel = new ExpiryWheel(8, 100, 0);
+        wheel.schedule("a", 150);
+        wheel.cancel("a");
+        assertEquals(0, wheel.size());
+
+        List<ExpiryWheel.Deadline> due = new ArrayList<>();
+        wheel.advance(1000, due);
+        assertTrue(due.isEmpty());
+    }
+}
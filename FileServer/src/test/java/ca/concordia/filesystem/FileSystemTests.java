@@ -5,6 +5,13 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -25,7 +32,8 @@ public class FileSystemTests {
     }
 
     @AfterEach
-    public void tearDown() {
+    public void tearDown() throws Exception {
+        fsManager.close();
         // Clean up test file
         File file = new File(testFilePath);
         if (file.exists()) {
@@ -88,4 +96,359 @@ public class FileSystemTests {
         String[] filesAfterDelete = fsManager.listFiles();
         assertEquals(0, filesAfterDelete.length);
     }
+
+    @Test
+    public void testBatchCommitsAllOperations() throws Exception {
+        fsManager.applyBatch(List.of(
+                Mutation.create("a.txt"),
+                Mutation.write("a.txt", "first"),
+                Mutation.create("b.txt"),
+                Mutation.write("b.txt", "B".repeat(200)),
+                Mutation.delete("a.txt")));
+
+        assertArrayEquals(new String[] {"b.txt"}, fsManager.listFiles());
+        assertEquals("B".repeat(200), new String(fsManager.readFile("b.txt")));
+    }
+
+    @Test
+    public void testFailedBatchLeavesNothingBehind() throws Exception {
+        fsManager.createFile("keep.txt");
+        fsManager.writeFile("keep.txt", "original");
+        int freeBlocks = fsManager.getFreeBlockCount();
+
+        Exception e = assertThrows(Exception.class, () -> fsManager.applyBatch(List.of(
+                Mutation.create("new.txt"),
+                Mutation.write("keep.txt", "changed"),
+                Mutation.delete("keep.txt"),
+                Mutation.write("missing.txt", "boom"))));
+        assertTrue(e.getMessage().contains("operation 4"));
+
+        assertArrayEquals(new String[] {"keep.txt"}, fsManager.listFiles());
+        assertEquals("original", new String(fsManager.readFile("keep.txt")));
+        assertEquals(freeBlocks, fsManager.getFreeBlockCount());
+    }
+
+    @Test
+    public void testDeletedBlocksAreReclaimedInBackground() throws Exception {
+        int freeBlocks = fsManager.getFreeBlockCount();
+        fsManager.createFile("big.txt");
+        fsManager.writeFile("big.txt", "X".repeat(500));
+        fsManager.deleteFile("big.txt");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fsManager.getPendingReclaimCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, fsManager.getPendingReclaimCount());
+        assertEquals(freeBlocks, fsManager.getFreeBlockCount());
+    }
+
+    @Test
+    public void testWriteAfterDeleteReusesBlocksImmediately() throws Exception {
+        String content = "Y".repeat(fsManager.getMaxFileSize());
+        fsManager.createFile("full.txt");
+        fsManager.writeFile("full.txt", content);
+        fsManager.deleteFile("full.txt");
+
+        // Needs every data block, including the ones the reclaimer may not have zeroed yet
+        fsManager.createFile("again.txt");
+        fsManager.writeFile("again.txt", content);
+        assertEquals(content, new String(fsManager.readFile("again.txt")));
+    }
+
+    @Test
+    public void testWriteRacingDeleteDoesNotLeakBlocks() throws Exception {
+        String big = "D".repeat(fsManager.getMaxFileSize());
+        for (int round = 0; round < 50; round++) {
+            fsManager.createFile("a.txt");
+            fsManager.writeFile("a.txt", big);
+            fsManager.createFile("w.txt");
+            // The write may have to wait for the reclaimer to give a.txt's blocks back
+            fsManager.deleteFile("a.txt");
+
+            Thread writer = new Thread(() -> {
+                try {
+                    fsManager.writeFile("w.txt", big);
+                } catch (Exception e) {
+                    // Losing the race to the delete is fine
+                }
+            });
+            writer.start();
+            // Delete while the writer is parked, most likely waiting for the reclaimer
+            while (writer.isAlive() && writer.getState() != Thread.State.WAITING) {
+                Thread.onSpinWait();
+            }
+            try {
+                fsManager.deleteFile("w.txt");
+            } catch (Exception e) {
+                // Already gone if the write failed
+            }
+            writer.join();
+
+            long deadline = System.currentTimeMillis() + 3000;
+            while (fsManager.getPendingReclaimCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, fsManager.listFiles().length);
+            assertEquals(fsManager.getDataBlockCount(), fsManager.getFreeBlockCount(), "round " + round);
+        }
+    }
+
+    @Test
+    public void testWriteDuringBackgroundReclaimDoesNotReuseLiveBlocks() throws Exception {
+        String two = "A".repeat(200);
+        String four = "C".repeat(500);
+        String one = "D".repeat(100);
+        for (int round = 0; round < 50; round++) {
+            fsManager.createFile("a.txt");
+            fsManager.writeFile("a.txt", two);
+            fsManager.createFile("b.txt");
+            fsManager.writeFile("b.txt", two);
+            // a.txt's blocks go to the reclaimer; b.txt's stay queued while that batch is zeroed
+            fsManager.deleteFile("a.txt");
+            fsManager.deleteFile("b.txt");
+
+            // Only fits by reclaiming b.txt's blocks on this thread
+            fsManager.createFile("c.txt");
+            fsManager.writeFile("c.txt", four);
+            fsManager.createFile("d.txt");
+            fsManager.writeFile("d.txt", one);
+            assertEquals(four, new String(fsManager.readFile("c.txt")), "round " + round);
+            assertEquals(one, new String(fsManager.readFile("d.txt")), "round " + round);
+
+            fsManager.deleteFile("c.txt");
+            fsManager.deleteFile("d.txt");
+            long deadline = System.currentTimeMillis() + 3000;
+            while (fsManager.getPendingReclaimCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(fsManager.getDataBlockCount(), fsManager.getFreeBlockCount(), "round " + round);
+        }
+    }
+
+    @Test
+    public void testOversizedWriteIsRejectedBeforeEncoding() throws Exception {
+        fsManager.createFile("a.txt");
+        fsManager.writeFile("a.txt", "kept");
+
+        String huge = "H".repeat(1 << 20);
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> fsManager.writeFile("a.txt", huge));
+        assertTrue(e.getMessage().contains(String.valueOf(fsManager.getMaxFileSize())), e.getMessage());
+        assertEquals("kept", new String(fsManager.readFile("a.txt")));
+    }
+
+    @Test
+    public void testSmallFilesAreInlinedAndMoveToBlocksWhenTheyGrow() throws Exception {
+        int freeBlocks = fsManager.getFreeBlockCount();
+        fsManager.createFile("tiny.txt");
+
+        fsManager.writeFile("tiny.txt", "a few bytes");
+        assertEquals(freeBlocks, fsManager.getFreeBlockCount());
+        assertEquals("a few bytes", new String(fsManager.readFile("tiny.txt")));
+
+        String grown = "G".repeat(200);
+        fsManager.writeFile("tiny.txt", grown);
+        assertEquals(freeBlocks - 2, fsManager.getFreeBlockCount());
+        assertEquals(grown, new String(fsManager.readFile("tiny.txt")));
+
+        fsManager.writeFile("tiny.txt", "small again");
+        assertEquals(freeBlocks, fsManager.getFreeBlockCount());
+        assertEquals("small again", new String(fsManager.readFile("tiny.txt")));
+    }
+
+    @Test
+    public void testInlineWriteIsSyncedToTheImage() throws Exception {
+        fsManager.createFile("tiny.txt");
+        fsManager.writeFile("tiny.txt", "a few bytes");
+
+        // The first inode record is at the start of the image: 11-byte name, size, first block, expiry, then the inline data
+        byte[] image = Files.readAllBytes(Path.of(testFilePath));
+        assertEquals("tiny.txt", new String(image, 0, 8, StandardCharsets.US_ASCII));
+        assertEquals("a few bytes", new String(image, 23, 11, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testExpiredFilesDisappear() throws Exception {
+        fsManager.createFile("temp.txt", 200);
+        fsManager.writeFile("temp.txt", "short lived");
+        fsManager.createFile("keep.txt");
+        assertEquals("short lived", new String(fsManager.readFile("temp.txt")));
+
+        Thread.sleep(300);
+        // Gone for readers right away, even before the sweeper has run
+        assertArrayEquals(new String[]{"keep.txt"}, fsManager.listFiles());
+        assertThrows(Exception.class, () -> fsManager.readFile("temp.txt"));
+
+        long deadline = System.currentTimeMillis() + 3000;
+        while (fsManager.getFileCount() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, fsManager.getFileCount());
+
+        // The name can be used again
+        fsManager.createFile("temp.txt");
+        assertEquals(2, fsManager.listFiles().length);
+    }
+
+    @Test
+    public void testTtlIsCapped() throws Exception {
+        assertThrows(IllegalArgumentException.class,
+                () -> fsManager.createFile("t", (Long.MAX_VALUE / 1000) * 1000));
+        assertThrows(IllegalArgumentException.class,
+                () -> fsManager.createFile("t", FileSystemManager.MAX_TTL_MILLIS + 1));
+        assertEquals(0, fsManager.listFiles().length);
+
+        fsManager.createFile("t", FileSystemManager.MAX_TTL_MILLIS);
+        assertArrayEquals(new String[]{"t"}, fsManager.listFiles());
+    }
+
+    @Test
+    public void testLruEvictionMakesRoomForNewFiles() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            fsManager.createFile("f" + i);
+        }
+        assertThrows(IllegalStateException.class, () -> fsManager.createFile("f5"));
+
+        fsManager.setLruEviction(true);
+        fsManager.readFile("f0");
+        fsManager.createFile("f5");
+
+        List<String> files = List.of(fsManager.listFiles());
+        assertFalse(files.contains("f1"), "least recently used file should be evicted");
+        assertTrue(files.contains("f0"));
+        assertTrue(files.contains("f5"));
+    }
+
+    @Test
+    public void testLruEvictionSkipsWritesThatCanNeverFit() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            fsManager.createFile("f" + i);
+            fsManager.writeFile("f" + i, "small");
+        }
+        fsManager.createFile("big");
+        fsManager.setLruEviction(true);
+
+        assertThrows(IllegalStateException.class,
+                () -> fsManager.writeFile("big", "X".repeat(fsManager.getMaxFileSize() + 1)));
+        assertEquals(5, fsManager.listFiles().length);
+    }
+
+    @Test
+    public void testListAndReadDoNotWaitForTheLock() throws Exception {
+        fsManager.createFile("a.txt");
+        fsManager.writeFile("a.txt", "B".repeat(200));
+
+        // Another thread holds the volume lock for as long as the transaction is open
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            fsManager.beginTransaction();
+            locked.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                // Fall through and release the lock
+            } finally {
+                fsManager.rollbackTransaction();
+            }
+        });
+        holder.start();
+        locked.await();
+        try {
+            assertArrayEquals(new String[]{"a.txt"}, fsManager.listFiles());
+            assertEquals("B".repeat(200), new String(fsManager.readFile("a.txt")));
+            assertThrows(Exception.class, () -> fsManager.readFile("missing.txt"));
+        } finally {
+            done.countDown();
+            holder.join();
+        }
+    }
+
+    @Test
+    public void testLockFreeReadsNeverSeeTornContent() throws Exception {
+        fsManager.createFile("a.txt");
+        fsManager.writeFile("a.txt", "A".repeat(300));
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                byte[] buffer = new byte[fsManager.getMaxFileSize()];
+                try {
+                    while (running.get()) {
+                        int size = fsManager.readFile("a.txt", buffer);
+                        String content = new String(buffer, 0, size);
+                        if (size != 300 || !content.equals(String.valueOf(content.charAt(0)).repeat(300))) {
+                            failure.set(content);
+                        }
+                    }
+                } catch (Exception e) {
+                    failure.set(e.toString());
+                }
+            });
+            readers[i].start();
+        }
+
+        for (int i = 0; i < 200; i++) {
+            fsManager.writeFile("a.txt", (i % 2 == 0 ? "B" : "A").repeat(300));
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get(), "a reader saw a partial write");
+    }
+
+    @Test
+    public void testInterruptedReadersDoNotCloseTheVolume() throws Exception {
+        String content = "I".repeat(300);
+        fsManager.createFile("a.txt");
+        fsManager.writeFile("a.txt", content);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            byte[] buffer = new byte[fsManager.getMaxFileSize()];
+            while (running.get()) {
+                // Clear the flag so the next read starts on the lock-free path and can be interrupted mid-read
+                Thread.interrupted();
+                try {
+                    int size = fsManager.readFile("a.txt", buffer);
+                    if (!content.equals(new String(buffer, 0, size))) {
+                        failure.set("wrong content");
+                    }
+                } catch (Exception e) {
+                    failure.set(e.toString());
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 2000; i++) {
+            reader.interrupt();
+            Thread.yield();
+        }
+        running.set(false);
+        reader.join();
+
+        assertNull(failure.get());
+        fsManager.writeFile("a.txt", "still writable");
+        assertEquals("still writable", new String(fsManager.readFile("a.txt")));
+        fsManager.writeFile("a.txt", content);
+        assertEquals(content, new String(fsManager.readFile("a.txt")));
+    }
+
+    @Test
+    public void testCloseStopsBackgroundThreads() throws Exception {
+        FileSystemManager other = new FileSystemManager("closed-filesystem.dat", 10 * 128);
+        other.createFile("a.txt");
+        other.writeFile("a.txt", "Z".repeat(200));
+        other.deleteFile("a.txt");
+        other.close();
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertFalse(thread.getName().endsWith("closed-filesystem.dat"), thread.getName() + " still running");
+        }
+        new File("closed-filesystem.dat").delete();
+    }
 }
@@ -0,0 +1,106 @@
+package ca.concordia.filesystem;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VolumeSetTests {
+
+    private VolumeSet volumeSet;
+    private final String testFilePath = "test-volumes.dat";
+    private final int shardCount = 4;
+
+    @BeforeEach
+    public void setUp() {
+        deleteImages();
+        volumeSet = new VolumeSet(testFilePath, 10 * 128, shardCount);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        volumeSet.close();
+        deleteImages();
+    }
+
+    private void deleteImages() {
+        for (int i = 0; i < shardCount; i++) {
+            File file = new File(testFilePath + "." + i);
+            if (file.exists()) {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testEachShardHasItsOwnImage() {
+        assertEquals(shardCount, volumeSet.getShardCount());
+        for (int i = 0; i < shardCount; i++) {
+            assertTrue(new File(testFilePath + "." + i).exists());
+        }
+    }
+
+    @Test
+    public void testListMergesAllShards() throws Exception {
+        String[] names = {"a.txt", "b.txt", "c.txt", "d.txt", "e.txt", "f.txt"};
+        for (String name : names) {
+            volumeSet.createFile(name);
+        }
+
+        assertArrayEquals(names, volumeSet.listFiles());
+    }
+
+    @Test
+    public void testWriteReadAndDeleteAcrossShards() throws Exception {
+        for (int i = 0; i < 8; i++) {
+            volumeSet.createFile("f" + i);
+            volumeSet.writeFile("f" + i, "content " + i);
+        }
+        for (int i = 0; i < 8; i++) {
+            assertEquals("content " + i, new String(volumeSet.readFile("f" + i)));
+        }
+
+        volumeSet.deleteFile("f3");
+        assertEquals(7, volumeSet.listFiles().length);
+        assertThrows(Exception.class, () -> volumeSet.readFile("f3"));
+    }
+
+    @Test
+    public void testShardStatsHasOneLinePerShard() throws Exception {
+        volumeSet.createFile("stats.txt");
+        String[] stats = volumeSet.getShardStats();
+        assertEquals(shardCount, stats.length);
+
+        int totalFiles = 0;
+        for (String line : stats) {
+            totalFiles += line.contains(" 1 files") ? 1 : 0;
+        }
+        assertEquals(1, totalFiles);
+    }
+
+    @Test
+    public void testBatchFailingOnOneVolumeCommitsOnNone() throws Exception {
+        // Two files on different volumes; the one on the higher volume is prepared last
+        String first = null;
+        String second = null;
+        for (int i = 0; second == null; i++) {
+            String name = "f" + i;
+            if (first == null) {
+                first = name;
+            } else if (volumeSet.indexFor(name) > volumeSet.indexFor(first)) {
+                second = name;
+            }
+        }
+        // Its image is closed, so writing its metadata fails with an IOException
+        volumeSet.volumeFor(second).close();
+
+        List<Mutation> batch = List.of(Mutation.create(first), Mutation.create(second));
+        assertThrows(Exception.class, () -> volumeSet.applyBatch(batch));
+        assertEquals(0, volumeSet.volumeFor(first).listFiles().length);
+        assertEquals(0, volumeSet.volumeFor(second).listFiles().length);
+    }
+}
@@ -0,0 +1,157 @@
+package ca.concordia.replication;
+
+import ca.concordia.filesystem.VolumeSet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicationTests {
+
+    private final String primaryFilePath = "primary-filesystem.dat";
+    private final String standbyFilePath = "standby-filesystem.dat";
+    private final int replicationPort = 12400;
+
+    private VolumeSet primary;
+    private VolumeSet standby;
+    private ReplicationStandby receiver;
+    private ReplicationPrimary sender;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        deleteImages();
+        primary = new VolumeSet(primaryFilePath, 10 * 128, 1);
+        standby = new VolumeSet(standbyFilePath, 10 * 128, 1);
+        receiver = new ReplicationStandby(replicationPort, standby);
+        receiver.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (sender != null) {
+            sender.stop();
+        }
+        receiver.stop();
+        primary.close();
+        standby.close();
+        deleteImages();
+    }
+
+    private void deleteImages() {
+        for (String path : new String[] {primaryFilePath, standbyFilePath}) {
+            File file = new File(path);
+            if (file.exists()) {
+                file.delete();
+            }
+        }
+    }
+
+    private void startSender(ReplicationPrimary.AckPolicy ackPolicy) {
+        sender = new ReplicationPrimary("localhost", replicationPort, ackPolicy, 100);
+        primary.setMutationListener(sender);
+        sender.start();
+    }
+
+    @Test
+    public void testAsyncReplicationReachesStandby() throws Exception {
+        startSender(ReplicationPrimary.AckPolicy.ASYNC);
+
+        primary.createFile("a.txt");
+        primary.writeFile("a.txt", "replicated content");
+        primary.createFile("b.txt");
+        primary.deleteFile("b.txt");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sender.getReplicationLag() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        assertEquals(0, sender.getReplicationLag());
+        assertEquals(4, receiver.getAppliedSeq());
+        assertArrayEquals(new String[] {"a.txt"}, standby.listFiles());
+        assertEquals("replicated content", new String(standby.readFile("a.txt")));
+    }
+
+    @Test
+    public void testSyncAckWaitsForStandby() throws Exception {
+        startSender(ReplicationPrimary.AckPolicy.SYNC);
+
+        primary.createFile("sync.txt");
+        assertTrue(sender.awaitAck());
+
+        // Once the ack is in, the standby must already have the file
+        assertArrayEquals(new String[] {"sync.txt"}, standby.listFiles());
+        assertEquals(0, sender.getReplicationLag());
+    }
+
+    @Test
+    public void testUnreachableStandbyIsDroppedInsteadOfBlockingWrites() throws Exception {
+        // Nothing listens on this port, so nothing is ever acknowledged
+        sender = new ReplicationPrimary("localhost", replicationPort + 1, ReplicationPrimary.AckPolicy.SYNC, 2);
+        primary.setMutationListener(sender);
+        sender.start();
+
+        long start = System.currentTimeMillis();
+        primary.createFile("a.txt");
+        primary.createFile("b.txt");
+        primary.createFile("c.txt");
+        assertEquals(1, primary.getShardStats().length);
+        assertTrue(System.currentTimeMillis() - start < 1000, "mutations waited for the standby");
+
+        assertFalse(sender.isInSync());
+        assertFalse(sender.awaitAck(), "an ack can no longer arrive once the standby is dropped");
+        assertEquals(3, primary.listFiles().length);
+    }
+
+    @Test
+    public void testMalformedFramesDoNotStopTheStandby() throws Exception {
+        // Anyone can connect to the standby port; each bad frame only costs its own connection
+        for (int length : new int[] {-1, Integer.MAX_VALUE, 3}) {
+            try (Socket socket = new Socket("localhost", replicationPort);
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+                out.writeLong(42);
+                out.writeInt(length);
+                out.write(new byte[] {1, 2, 3});
+                out.flush();
+                // The standby hangs up once it rejects the frame
+                socket.setSoTimeout(2000);
+                assertEquals(-1, socket.getInputStream().read());
+            }
+        }
+
+        startSender(ReplicationPrimary.AckPolicy.SYNC);
+        primary.createFile("a.txt");
+        assertTrue(sender.awaitAck());
+        assertArrayEquals(new String[] {"a.txt"}, standby.listFiles());
+    }
+
+    @Test
+    public void testStopEndsASenderWaitingForAnAck() throws Exception {
+        // A standby that takes frames but never acknowledges them
+        try (ServerSocket silentStandby = new ServerSocket(0)) {
+            sender = new ReplicationPrimary("localhost", silentStandby.getLocalPort(),
+                    ReplicationPrimary.AckPolicy.ASYNC, 100);
+            primary.setMutationListener(sender);
+            sender.start();
+
+            try (Socket socket = silentStandby.accept()) {
+                primary.createFile("a.txt");
+                InputStream in = socket.getInputStream();
+                // The primary id of the first frame, after which the sender blocks reading the ack
+                in.readNBytes(8);
+
+                sender.stop();
+                socket.setSoTimeout(2000);
+                in.skip(Long.MAX_VALUE);
+                assertEquals(-1, in.read(), "stop() should close the connection");
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package ca.concordia.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControlTests {
+
+    private final String testFilePath = "admission-test-filesystem.dat";
+    // Scheduling and I/O allowance on top of the admission wait, for a loaded test machine
+    private static final long SLACK_MS = 250;
+
+    private FileServer server;
+
+    @AfterEach
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+        File file = new File(testFilePath);
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+
+    private void startServer() throws Exception {
+        Thread serverThread = new Thread(server::start);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+    }
+
+    @Test
+    public void testRateLimitRepliesBusyWithRetryAfter() throws Exception {
+        int port = 12500;
+        server = new FileServer(port, testFilePath, 10 * 128);
+        server.setRateLimit(10, 5);
+        startServer();
+
+        int busy = 0;
+        int served = 0;
+        try (Socket socket = new Socket("localhost", port);
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            for (int i = 0; i < 50; i++) {
+                out.println("LIST");
+                String response = in.readLine();
+                assertNotNull(response);
+                if (response.startsWith("BUSY: retry-after ")) {
+                    busy++;
+                } else {
+                    served++;
+                }
+            }
+        }
+
+        // The burst is served, the rest of a tight loop is shed instead of queued
+        assertTrue(served >= 5, "Burst should be served, got " + served);
+        assertTrue(busy > 0, "Requests beyond the rate should get BUSY");
+    }
+
+    @Test
+    public void testShedBatchIsNotAppliedPiecemeal() throws Exception {
+        int port = 12502;
+        server = new FileServer(port, testFilePath, 10 * 128);
+        // One request at a time, so each batch below finds the bucket empty when it commits
+        server.setRateLimit(5, 1);
+        startServer();
+
+        try (Socket socket = new Socket("localhost", port);
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            assertEquals("SUCCESS: No files.", request(out, in, "LIST"));
+
+            // The whole batch is shed at COMMIT with a single reply, and none of it runs
+            out.println("BEGIN");
+            out.println("CREATE a.txt");
+            out.println("CREATE b.txt");
+            out.println("COMMIT");
+            String response = in.readLine();
+            assertTrue(response.startsWith("BUSY: retry-after "), response);
+            Thread.sleep(retryAfter(response));
+            assertEquals("SUCCESS: No files.", request(out, in, "LIST"));
+
+            // Same for a BATCH n envelope, and the session carries on outside the batch
+            out.println("BATCH 1");
+            out.println("CREATE c.txt");
+            response = in.readLine();
+            assertTrue(response.startsWith("BUSY: retry-after "), response);
+            Thread.sleep(retryAfter(response));
+            assertEquals("SUCCESS: No files.", request(out, in, "LIST"));
+
+            // Resent after the delay, the batch commits as a whole
+            Thread.sleep(500);
+            out.println("BEGIN");
+            out.println("CREATE a.txt");
+            out.println("CREATE b.txt");
+            out.println("COMMIT");
+            response = in.readLine();
+            assertTrue(response.startsWith("SUCCESS"), response);
+            Thread.sleep(500);
+            assertEquals("SUCCESS: a.txt, b.txt", request(out, in, "LIST"));
+        }
+    }
+
+    private String request(PrintWriter out, BufferedReader in, String line) throws Exception {
+        out.println(line);
+        return in.readLine();
+    }
+
+    private long retryAfter(String busyReply) {
+        return Long.parseLong(busyReply.substring("BUSY: retry-after ".length(), busyReply.length() - 2));
+    }
+
+    @Test
+    public void testOverloadShedsConnectionsWithBoundedLatency() throws Exception {
+        int port = 12501;
+        server = new FileServer(port, testFilePath, 10 * 128);
+        server.configureAdmission(4, 4, 2);
+        startServer();
+
+        int numClients = 100;
+        int requestsPerSession = 20;
+        long thinkMs = 5;
+        ExecutorService executor = Executors.newFixedThreadPool(numClients);
+        AtomicInteger busy = new AtomicInteger();
+        AtomicLong worstRequestMs = new AtomicLong();
+        AtomicLong worstConnectionMs = new AtomicLong();
+        List<String> wrongBusyReplies = new CopyOnWriteArrayList<>();
+        List<Future<?>> results = new ArrayList<>();
+
+        for (int i = 0; i < numClients; i++) {
+            results.add(executor.submit(() -> {
+                long start = System.nanoTime();
+                try (Socket socket = new Socket("localhost", port);
+                        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                    // Hold the session for a while so workers stay occupied
+                    for (int j = 0; j < requestsPerSession; j++) {
+                        long sent = System.nanoTime();
+                        out.println("LIST");
+                        String response = in.readLine();
+                        if (j > 0) {
+                            // The first reply also includes waiting in the session queue
+                            worstRequestMs.accumulateAndGet((System.nanoTime() - sent) / 1_000_000, Math::max);
+                        }
+                        if (response == null || response.startsWith("BUSY")) {
+                            if (response != null
+                                    && !response.equals("BUSY: retry-after " + FileServer.BUSY_RETRY_AFTER_MS + "ms")) {
+                                wrongBusyReplies.add(response);
+                            }
+                            busy.incrementAndGet();
+                            break;
+                        }
+                        Thread.sleep(thinkMs);
+                    }
+                    out.println("QUIT");
+                }
+                worstConnectionMs.accumulateAndGet((System.nanoTime() - start) / 1_000_000, Math::max);
+                return null;
+            }));
+        }
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS), "Overloaded server should still answer");
+        for (Future<?> result : results) {
+            result.get();
+        }
+
+        assertTrue(busy.get() > 0, "Connections beyond the session and queue bounds should get BUSY");
+        assertTrue(wrongBusyReplies.isEmpty(), "Unexpected BUSY replies: " + wrongBusyReplies);
+
+        // An admitted request waits at most ADMISSION_WAIT_MS for a slot before it is served or shed
+        long requestBoundMs = FileServer.ADMISSION_WAIT_MS + SLACK_MS;
+        assertTrue(worstRequestMs.get() <= requestBoundMs,
+                "Worst request latency was " + worstRequestMs.get() + "ms, bound " + requestBoundMs + "ms");
+
+        // A connection is shed at once, or waits in the queue for at most one running session, then runs its own
+        long sessionBoundMs = requestsPerSession * (thinkMs + requestBoundMs);
+        assertTrue(worstConnectionMs.get() <= 2 * sessionBoundMs,
+                "Worst connection latency was " + worstConnectionMs.get() + "ms, bound " + 2 * sessionBoundMs + "ms");
+    }
+}